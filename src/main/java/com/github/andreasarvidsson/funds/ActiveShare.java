@@ -0,0 +1,82 @@
+package com.github.andreasarvidsson.funds;
+
+import com.github.andreasarvidsson.funds.util.Pair;
+import com.github.andreasarvidsson.funds.util.SparseVector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Active share and active weights of a portfolio against a benchmark.
+ * Active share is half the L1 distance between the holdings, over the
+ * holdings Avanza lists for each fund.
+ *
+ * @author Andreas Arvidsson
+ */
+public class ActiveShare {
+
+    public final String name, benchmarkName;
+    public final double activeShare;
+    //Active weights, sorted by absolute size.
+    public final List<Pair<String, Double>> sectors, regions;
+    public final Portfolio portfolio, benchmark;
+
+    private ActiveShare(final Portfolio portfolio, final Benchmark benchmark) {
+        this.name = portfolio.name;
+        this.benchmarkName = benchmark.portfolio.name;
+        this.portfolio = portfolio;
+        this.benchmark = benchmark.portfolio;
+        activeShare = new SparseVector(portfolio.holdings).l1Distance(benchmark.holdings) / 2;
+        sectors = activeWeights(new SparseVector(portfolio.sectors), benchmark.sectors);
+        regions = activeWeights(new SparseVector(portfolio.regions), benchmark.regions);
+    }
+
+    public static ActiveShare compute(final Portfolio portfolio, final Portfolio benchmark) {
+        return new ActiveShare(portfolio, new Benchmark(benchmark));
+    }
+
+    /**
+     * The benchmark vectors are built once and shared by all portfolios.
+     */
+    public static List<ActiveShare> compute(final List<Portfolio> portfolios, final Portfolio benchmark) {
+        final Benchmark bench = new Benchmark(benchmark);
+        final List<ActiveShare> res = new ArrayList();
+        portfolios.forEach(portfolio -> {
+            res.add(new ActiveShare(portfolio, bench));
+        });
+        return res;
+    }
+
+    /**
+     * Development difference against the benchmark, or null if either is missing.
+     */
+    public Double getTrackingDifference(final String key) {
+        final Double value = portfolio.developments.get(key, null);
+        final Double bench = benchmark.developments.get(key, null);
+        return value != null && bench != null ? value - bench : null;
+    }
+
+    private static List<Pair<String, Double>> activeWeights(final SparseVector values, final SparseVector benchmark) {
+        final List<Pair<String, Double>> res = new ArrayList();
+        values.merge(benchmark, (key, a, b) -> {
+            res.add(new Pair(key, a - b));
+        });
+        Collections.sort(res, (a, b) -> Double.compare(Math.abs(b.second()), Math.abs(a.second())));
+        return res;
+    }
+
+    private static class Benchmark {
+
+        private final Portfolio portfolio;
+        private final SparseVector holdings, sectors, regions;
+
+        private Benchmark(final Portfolio portfolio) {
+            this.portfolio = portfolio;
+            holdings = new SparseVector(portfolio.holdings);
+            sectors = new SparseVector(portfolio.sectors);
+            regions = new SparseVector(portfolio.regions);
+        }
+
+    }
+
+}
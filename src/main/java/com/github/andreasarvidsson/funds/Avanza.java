@@ -3,13 +3,21 @@ package com.github.andreasarvidsson.funds;
 import com.github.andreasarvidsson.funds.util.HTTP;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.github.andreasarvidsson.funds.util.FileCache;
+import com.github.andreasarvidsson.funds.util.NameIndex;
+import com.github.andreasarvidsson.funds.util.NameIndex.Match;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 /**
  *
@@ -18,59 +26,342 @@ import java.util.NoSuchElementException;
 public abstract class Avanza {
 
     private static final String BASE = "https://www.avanza.se";
-    private static final Map<String, AvanzaFund> FUNDS = new HashMap();
+    private static final String TYPE_FUND = "FUND";
+    private static final String PREFIX = "avanza_";
+    private static final String PREFIX_SEARCH = "search_";
+    private static final String PREFIX_CHART = "chart_";
+    private static final double MIN_NAME_SCORE = 0.7;
+    private static final double MIN_NAME_MARGIN = 0.1;
+    private static final Map<String, AvanzaFund> FUNDS = new ConcurrentHashMap();
+    private static final Map<String, String> CACHED_IDS = new ConcurrentHashMap();
+    //Requested name to the fuzzy matched name it was loaded by.
+    private static final Map<String, String> RESOLVED = new ConcurrentHashMap();
+    //Loads in progress, so concurrent callers share one load per name.
+    private static final Map<String, CompletableFuture<AvanzaFund>> LOADING = new ConcurrentHashMap();
+    private static NameIndex<String> names;
+
+    public static final FundDataSource DATA_SOURCE = new FundDataSource() {
+        @Override
+        public String getId() {
+            return "avanza";
+        }
+
+        @Override
+        public AvanzaFund getFund(final String name) throws IOException {
+            return Avanza.getFund(name);
+        }
+
+        @Override
+        public PriceHistory getPriceHistory(final AvanzaFund fund) throws IOException {
+            return Avanza.getPriceHistory(fund);
+        }
+    };
 
     public static AvanzaFund getFund(final String name, final String... alternativeNames) throws IOException {
-        try {
-            return getFundByName(name);
+        final List<String> allNames = new ArrayList();
+        allNames.add(name);
+        allNames.addAll(Arrays.asList(alternativeNames));
+        for (final String n : allNames) {
+            final String resolved = RESOLVED.get(n);
+            if (resolved != null && FUNDS.containsKey(resolved)) {
+                return FUNDS.get(resolved);
+            }
         }
-        catch (final NoSuchElementException e) {
+        //Exact names first, so a near miss never shadows an alternative name.
+        for (final String n : allNames) {
+            if (FUNDS.containsKey(n) || getNames().getExact(n) != null) {
+                final AvanzaFund fund = getFundByName(n);
+                if (fund != null) {
+                    return fund;
+                }
+            }
         }
-        for (int i = 0; i < alternativeNames.length; ++i) {
-            try {
-                return getFundByName(alternativeNames[i]);
+        //Fuzzy matches are loaded by the name they matched, never cached under the requested name.
+        for (final String n : allNames) {
+            final Match<String> match = getNames().findMatch(n, MIN_NAME_SCORE, MIN_NAME_MARGIN);
+            if (match != null) {
+                final AvanzaFund fund = getFundByName(match.name);
+                if (fund != null) {
+                    RESOLVED.put(n, match.name);
+                    return fund;
+                }
             }
-            catch (final NoSuchElementException e) {
+        }
+        //Only names not known locally at all are searched for remotely.
+        for (final String n : allNames) {
+            final AvanzaFund fund = getFundByName(n);
+            if (fund != null) {
+                return fund;
             }
         }
         throw new NoSuchElementException(String.format("Can't find Avanza fund '%s'", name));
     }
 
+    /**
+     * Name of the fund as it's known locally, exactly or by a fuzzy match, or
+     * null. Never searches remotely or loads the fund, so untrusted names
+     * can be checked without growing the caches.
+     */
+    public static String getKnownName(final String name) throws IOException {
+        final Match<String> match = getNames().findMatch(name, MIN_NAME_SCORE, MIN_NAME_MARGIN);
+        return match != null ? match.name : null;
+    }
+
+    /**
+     * All funds available in the file cache, registered by both their cached
+     * and their Avanza name.
+     */
+    public static List<AvanzaFund> getUniverse() throws IOException {
+        final Map<String, AvanzaFund> res = new LinkedHashMap();
+        for (final String fileName : FileCache.list(PREFIX)) {
+            final AvanzaFund fund = getFundByName(fileName.substring(PREFIX.length()));
+            if (fund == null) {
+                continue;
+            }
+            FUNDS.putIfAbsent(fund.name, fund);
+            res.putIfAbsent(fund.name, fund);
+        }
+        return new ArrayList(res.values());
+    }
+
+    public static PriceHistory getPriceHistory(final AvanzaFund fund) throws IOException {
+        final String fileName = PREFIX_CHART + fund.name;
+        PriceHistory history = FileCache.load(fileName, PriceHistory.class);
+        if (history == null) {
+            final String id = fund.orderbookId != null ? fund.orderbookId : getExactId(fund.name);
+            if (id == null) {
+                throw new NoSuchElementException(String.format("Can't find Avanza fund '%s'", fund.name));
+            }
+            final ChartResult chart = HTTP.get(
+                    String.format("%s/_api/fund-guide/chart/%s/five_years", BASE, id),
+                    ChartResult.class
+            );
+            //Development in percent since the start of the period. Days without data are null.
+            chart.dataSerie.removeIf(point -> point.y == null);
+            final long[] dates = new long[chart.dataSerie.size()];
+            final double[] values = new double[dates.length];
+            for (int i = 0; i < dates.length; ++i) {
+                dates[i] = chart.dataSerie.get(i).x;
+                values[i] = 1 + chart.dataSerie.get(i).y * 0.01;
+            }
+            history = new PriceHistory(fund.name, dates, values);
+            FileCache.store(fileName, history);
+        }
+        return history;
+    }
+
+    /**
+     * Same as getFund but returns null if the name doesn't exactly match a
+     * fund. Used for holdings that may or may not be funds themselves.
+     */
+    public static AvanzaFund findFund(final String name) throws IOException {
+        if (FUNDS.containsKey(name)) {
+            return FUNDS.get(name);
+        }
+        if (findId(name, TYPE_FUND) == null) {
+            return null;
+        }
+        return getFundByName(name);
+    }
+
+    /**
+     * The fund with exactly this name, after folding, or null. Each name is
+     * loaded once, callers asking for a name that is being loaded wait for
+     * that load.
+     */
     private static AvanzaFund getFundByName(final String name) throws IOException {
-        if (!FUNDS.containsKey(name)) {
-            final String fileName = String.format("avanza_%s", name);
-            AvanzaFund fund = FileCache.load(fileName, AvanzaFund.class);
+        final AvanzaFund loaded = FUNDS.get(name);
+        if (loaded != null) {
+            return loaded;
+        }
+        final CompletableFuture<AvanzaFund> future = new CompletableFuture();
+        final CompletableFuture<AvanzaFund> loading = LOADING.putIfAbsent(name, future);
+        if (loading != null) {
+            return await(loading);
+        }
+        try {
+            //Another caller may have finished loading after the first check.
+            AvanzaFund fund = FUNDS.get(name);
+            if (fund == null) {
+                fund = loadFund(name);
+                if (fund != null) {
+                    FUNDS.put(name, fund);
+                }
+            }
+            future.complete(fund);
+            return fund;
+        }
+        catch (final IOException | RuntimeException ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        }
+        finally {
+            LOADING.remove(name, future);
+        }
+    }
+
+    private static AvanzaFund loadFund(final String name) throws IOException {
+        final String fileName = PREFIX + name;
+        AvanzaFund fund = FileCache.load(fileName, AvanzaFund.class);
+        if (fund == null) {
+            final String id = getExactId(name);
+            if (id == null) {
+                return null;
+            }
+            //The name may have resolved to a fund cached under another name.
+            if (CACHED_IDS.containsKey(id)) {
+                fund = FileCache.load(CACHED_IDS.get(id), AvanzaFund.class);
+            }
             if (fund == null) {
-                final String id = getId(name);
-                fund = HTTP.get(
-                        String.format("%s/_api/fund-guide/guide/%s", BASE, id),
-                        AvanzaFund.class
-                );
+                fund = fetchFund(id);
                 FileCache.store(fileName, fund);
+                CACHED_IDS.put(id, fileName);
+            }
+        }
+        fund.compile();
+        HoldingIndex.add(fund);
+        return fund;
+    }
+
+    private static AvanzaFund await(final CompletableFuture<AvanzaFund> future) throws IOException {
+        try {
+            return future.get();
+        }
+        catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        catch (final ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * All funds loaded so far, once each.
+     */
+    public static List<AvanzaFund> getLoadedFunds() {
+        final Map<String, AvanzaFund> res = new LinkedHashMap();
+        FUNDS.values().forEach(fund -> {
+            res.putIfAbsent(fund.name, fund);
+        });
+        return new ArrayList(res.values());
+    }
+
+    /**
+     * Fetches a new snapshot of the fund and swaps it in, and rewrites its
+     * file, under every name it was loaded by. The snapshot is compiled
+     * before it's published, so readers get either the old or the new fund
+     * and never wait. Look-through exposures containing the fund are
+     * invalidated.
+     */
+    public static AvanzaFund refresh(final AvanzaFund fund) throws IOException {
+        final String id = fund.orderbookId != null ? fund.orderbookId : getExactId(fund.name);
+        if (id == null) {
+            throw new NoSuchElementException(String.format("Can't find Avanza fund '%s'", fund.name));
+        }
+        final AvanzaFund fresh = fetchFund(id);
+        fresh.compile();
+        FileCache.store(PREFIX + fund.name, fresh);
+        CACHED_IDS.put(id, PREFIX + fund.name);
+        for (final String name : FUNDS.keySet()) {
+            if (FUNDS.replace(name, fund, fresh) && !name.equals(fund.name)) {
+                FileCache.store(PREFIX + name, fresh);
             }
-            fund.compile();
-            FUNDS.put(name, fund);
         }
-        return FUNDS.get(name);
+        HoldingIndex.add(fresh);
+        LookThrough.remove(fund.name);
+        return fresh;
     }
 
-    private static String getId(final String name) throws IOException {
-        final String encodedName = URLEncoder.encode(name, StandardCharsets.UTF_8.toString());
-        final SearchResults searchResult = HTTP.get(
-                String.format(
-                        "%s/_cqbe/search/global-search/global-search-template?query=%s",
-                        BASE, encodedName
-                ),
-                SearchResults.class
+    private static AvanzaFund fetchFund(final String id) throws IOException {
+        final AvanzaFund fund = HTTP.get(
+                String.format("%s/_api/fund-guide/guide/%s", BASE, id),
+                AvanzaFund.class
         );
+        fund.orderbookId = id;
+        return fund;
+    }
+
+    private static String getExactId(final String name) throws IOException {
+        //Resolve locally first. Only search remotely if the name isn't known.
+        final String id = getNames().getExact(name);
+        return id != null ? id : findId(name, null);
+    }
+
+    private static synchronized NameIndex<String> getNames() throws IOException {
+        if (names == null) {
+            names = new NameIndex();
+            for (final String fileName : FileCache.list(PREFIX_SEARCH)) {
+                addNames(FileCache.load(fileName, SearchResults.class));
+            }
+            for (final String fileName : FileCache.list(PREFIX)) {
+                final AvanzaFund fund = FileCache.load(fileName, AvanzaFund.class);
+                if (fund != null && fund.orderbookId != null) {
+                    names.put(fund.name, fund.orderbookId);
+                    //Files stored under another name than the fund's are known by that name too.
+                    names.put(fileName.substring(PREFIX.length()), fund.orderbookId);
+                    CACHED_IDS.put(fund.orderbookId, fileName);
+                }
+            }
+        }
+        return names;
+    }
+
+    private static void addNames(final SearchResults searchResult) {
+        if (searchResult == null || searchResult.resultGroups == null) {
+            return;
+        }
         for (final SearchResultsGroup group : searchResult.resultGroups) {
+            if (!TYPE_FUND.equalsIgnoreCase(group.instrumentType)) {
+                continue;
+            }
+            for (final SearchResultsHit hit : group.hits) {
+                names.put(hit.link.linkDisplay, hit.link.orderbookId);
+            }
+        }
+    }
+
+    private static String findId(final String name, final String instrumentType) throws IOException {
+        final SearchResults searchResult = search(name);
+        for (final SearchResultsGroup group : searchResult.resultGroups) {
+            if (instrumentType != null && !instrumentType.equalsIgnoreCase(group.instrumentType)) {
+                continue;
+            }
             for (final SearchResultsHit hit : group.hits) {
                 if (name.equalsIgnoreCase(hit.link.linkDisplay)) {
                     return hit.link.orderbookId;
                 }
             }
         }
-        throw new NoSuchElementException();
+        return null;
+    }
+
+    private static SearchResults search(final String name) throws IOException {
+        final String fileName = PREFIX_SEARCH + name;
+        SearchResults searchResult = FileCache.load(fileName, SearchResults.class);
+        if (searchResult == null) {
+            final String encodedName = URLEncoder.encode(name, StandardCharsets.UTF_8.toString());
+            searchResult = HTTP.get(
+                    String.format(
+                            "%s/_cqbe/search/global-search/global-search-template?query=%s",
+                            BASE, encodedName
+                    ),
+                    SearchResults.class
+            );
+            FileCache.store(fileName, searchResult);
+            synchronized (Avanza.class) {
+                if (names != null) {
+                    addNames(searchResult);
+                }
+            }
+        }
+        return searchResult;
     }
 
 }
@@ -87,6 +378,7 @@ class SearchResults {
 @JsonIgnoreProperties(ignoreUnknown = true)
 class SearchResultsGroup {
 
+    public String instrumentType;
     public List<SearchResultsHit> hits;
     public int numberOfHits;
 
@@ -103,3 +395,16 @@ class SearchResultsHitLink {
 
     public String orderbookId, linkDisplay;
 }
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+class ChartResult {
+
+    public List<ChartResultPoint> dataSerie;
+}
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+class ChartResultPoint {
+
+    public long x;
+    public Double y;
+}
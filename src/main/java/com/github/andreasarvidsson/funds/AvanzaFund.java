@@ -1,10 +1,13 @@
 package com.github.andreasarvidsson.funds;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.github.andreasarvidsson.funds.Country.Market;
 import com.github.andreasarvidsson.funds.Country.Region;
+import com.github.andreasarvidsson.funds.util.Fingerprint;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -17,7 +20,9 @@ import java.util.Map;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class AvanzaFund {
 
-    public String name, isin;
+    private static final double[] RISK_VOLATILITY = {0.25, 1.25, 3.5, 7.5, 12.5, 20, 30};
+
+    public String name, isin, orderbookId;
     public double productFee;
     public Double developmentOneDay, developmentOneMonth, developmentThreeMonths,
             developmentSixMonths, developmentThisYear, developmentOneYear,
@@ -26,12 +31,23 @@ public class AvanzaFund {
     public List<String> categories;
     public List<ChartData> countryChartData, holdingChartData,
             sectorChartData, regionChartData;
+    @JsonIgnore
     public final Map<Country, ChartData> countryMap = new HashMap();
+    @JsonIgnore
     public final Map<Region, ChartData> regionsMap = new HashMap();
+    @JsonIgnore
     public final Map<Market, ChartData> marketMap = new HashMap();
+    @JsonIgnore
+    public ExposureCube exposureCube;
     private Map<String, Double> developmentMap;
+    @JsonIgnore
+    private String hash;
 
     public void compile() {
+        intern();
+        countryMap.clear();
+        regionsMap.clear();
+        marketMap.clear();
         countryChartData.forEach(chartData -> {
             final Country country = Country.fromString(chartData.name);
             countryMap.put(country, chartData);
@@ -54,6 +70,35 @@ public class AvanzaFund {
         });
         regionChartData = new ArrayList(regionsMap.values());
         Collections.sort(regionChartData, (a, b) -> Double.compare(b.y, a.y));
+        exposureCube = ExposureCube.estimate(this);
+    }
+
+    //Share strings between funds and give holdings their canonical id.
+    private void intern() {
+        if (categories != null) {
+            categories.replaceAll(HoldingNames::intern);
+        }
+        for (final List<ChartData> list : Arrays.asList(countryChartData, sectorChartData, holdingChartData)) {
+            if (list != null) {
+                list.forEach(ChartData::intern);
+            }
+        }
+        if (holdingChartData != null) {
+            holdingChartData.forEach(data -> {
+                data.id = HoldingNames.getId(data.name);
+            });
+        }
+    }
+
+    /**
+     * Hash of the snapshot, changes whenever Avanza's data does.
+     */
+    @JsonIgnore
+    public synchronized String getHash() {
+        if (hash == null) {
+            hash = Fingerprint.of(this);
+        }
+        return hash;
     }
 
     public Double getCountry(final Country country, final Double def) {
@@ -97,6 +142,34 @@ public class AvanzaFund {
         return res;
     }
 
+    /**
+     * Annualized development in percent from the longest available horizon.
+     */
+    public Double getAnnualReturn() {
+        if (developmentFiveYears != null) {
+            return annualize(developmentFiveYears, 5);
+        }
+        if (developmentThreeYears != null) {
+            return annualize(developmentThreeYears, 3);
+        }
+        return developmentOneYear;
+    }
+
+    /**
+     * Standard deviation in percent. Falls back to the middle of the
+     * volatility band for the fund's risk level (1-7).
+     */
+    public double getVolatility() {
+        if (standardDeviation != null) {
+            return standardDeviation;
+        }
+        return RISK_VOLATILITY[Math.max(1, Math.min(7, risk)) - 1];
+    }
+
+    private static double annualize(final double development, final int years) {
+        return (Math.pow(1 + development * 0.01, 1.0 / years) - 1) * 100;
+    }
+
     private Map<String, Double> compileDevelopmentMap() {
         final Map<String, Double> res = new HashMap();
         Headers.DEVELOPMENT_TITLES.forEach(key -> {
@@ -152,6 +225,16 @@ public class AvanzaFund {
 
         public String name, type, currency, countryCode;
         public Double y;
+        //Canonical holding id, see HoldingNames.
+        @JsonIgnore
+        public int id = -1;
+
+        private void intern() {
+            name = HoldingNames.intern(name);
+            type = HoldingNames.intern(type);
+            currency = HoldingNames.intern(currency);
+            countryCode = HoldingNames.intern(countryCode);
+        }
 
     }
 
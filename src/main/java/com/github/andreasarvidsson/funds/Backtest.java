@@ -0,0 +1,199 @@
+package com.github.andreasarvidsson.funds;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Replays a portfolio over the price series in a PriceStore with periodic
+ * rebalancing. Prices are net of the product fee, so only the difference to
+ * FundData.getFee() is deducted.
+ *
+ * @author Andreas Arvidsson
+ */
+public class Backtest {
+
+    private static final double DAYS_PER_YEAR = 365.25;
+    private static final double MILLIS_PER_DAY = 86400000;
+
+    public final String name;
+    //Rebalancing interval in trading days. Zero means never.
+    public final int rebalanceDays;
+    public final long from, to;
+    public final double finalValue, cagr, maxDrawdown;
+    public final Double trackingDifference, trackingError;
+
+    private Backtest(
+            final Compiled compiled,
+            final int rebalanceDays,
+            final Benchmark benchmark) {
+        this.name = compiled.name;
+        this.rebalanceDays = rebalanceDays;
+        final PriceStore store = compiled.store;
+        final int start = benchmark != null ? Math.max(compiled.start, benchmark.start) : compiled.start;
+        final int end = store.numDates() - 1;
+        if (start >= end) {
+            throw new IllegalArgumentException(String.format("No common price history for '%s'", name));
+        }
+        final double[] holdings = Arrays.copyOf(compiled.weights, compiled.weights.length);
+        double value = 1, peak = 1, drawdown = 0;
+        double diffSum = 0, diffSquareSum = 0;
+        for (int t = start + 1; t <= end; ++t) {
+            final double prevValue = value;
+            value = compiled.step(holdings, t, rebalanceDays > 0 && (t - start) % rebalanceDays == 0);
+            if (value > peak) {
+                peak = value;
+            }
+            else if (1 - value / peak > drawdown) {
+                drawdown = 1 - value / peak;
+            }
+            if (benchmark != null) {
+                final double diff = value / prevValue - 1 - benchmark.returns[t];
+                diffSum += diff;
+                diffSquareSum += diff * diff;
+            }
+        }
+        final double years = (store.dates[end] - store.dates[start]) / MILLIS_PER_DAY / DAYS_PER_YEAR;
+        this.from = store.dates[start];
+        this.to = store.dates[end];
+        this.finalValue = value;
+        this.cagr = annualize(value, years);
+        this.maxDrawdown = drawdown * 100;
+        if (benchmark != null) {
+            final int n = end - start;
+            final double mean = diffSum / n;
+            final double variance = Math.max(0, diffSquareSum / n - mean * mean);
+            this.trackingDifference = cagr - annualize(benchmark.values[end] / benchmark.values[start], years);
+            this.trackingError = Math.sqrt(variance * n / years) * 100;
+        }
+        else {
+            this.trackingDifference = null;
+            this.trackingError = null;
+        }
+    }
+
+    public static Backtest run(final PriceStore store, final Portfolio portfolio, final int rebalanceDays) {
+        return new Backtest(new Compiled(store, portfolio), rebalanceDays, null);
+    }
+
+    public static Backtest run(
+            final PriceStore store,
+            final Portfolio portfolio,
+            final int rebalanceDays,
+            final Portfolio benchmark,
+            final int benchmarkRebalanceDays) {
+        return new Backtest(
+                new Compiled(store, portfolio),
+                rebalanceDays,
+                new Benchmark(new Compiled(store, benchmark), benchmarkRebalanceDays)
+        );
+    }
+
+    /**
+     * Every portfolio with every rebalancing interval, run in parallel. The
+     * result is ordered by portfolio and then interval. The benchmark is
+     * computed once with its own interval, same as in run.
+     */
+    public static List<Backtest> sweep(
+            final PriceStore store,
+            final List<Portfolio> portfolios,
+            final int[] rebalanceDays,
+            final Portfolio benchmark,
+            final int benchmarkRebalanceDays) {
+        final List<Compiled> compiled = new ArrayList();
+        portfolios.forEach(portfolio -> {
+            compiled.add(new Compiled(store, portfolio));
+        });
+        final Benchmark bench = benchmark != null
+                ? new Benchmark(new Compiled(store, benchmark), benchmarkRebalanceDays)
+                : null;
+        final Backtest[] res = new Backtest[compiled.size() * rebalanceDays.length];
+        IntStream.range(0, res.length).parallel().forEach(i -> {
+            res[i] = new Backtest(
+                    compiled.get(i / rebalanceDays.length),
+                    rebalanceDays[i % rebalanceDays.length],
+                    bench
+            );
+        });
+        return Arrays.asList(res);
+    }
+
+    private static double annualize(final double value, final double years) {
+        return (Math.pow(value, 1 / years) - 1) * 100;
+    }
+
+    //Portfolio weights resolved to series indexes in a store.
+    private static class Compiled {
+
+        private final String name;
+        private final PriceStore store;
+        private final int[] series;
+        private final double[] weights, feeFactors;
+        private final int start;
+
+        private Compiled(final PriceStore store, final Portfolio portfolio) {
+            this.name = portfolio.name;
+            this.store = store;
+            final int size = portfolio.funds.size();
+            series = new int[size];
+            weights = new double[size];
+            feeFactors = new double[size];
+            final double periodsPerYear = store.numDates() > 1
+                    ? (store.numDates() - 1) * DAYS_PER_YEAR * MILLIS_PER_DAY
+                    / (store.dates[store.numDates() - 1] - store.dates[0])
+                    : 1;
+            int first = 0;
+            for (int i = 0; i < size; ++i) {
+                final FundData fd = portfolio.funds.get(i);
+                series[i] = store.indexOf(fd.avanza.name);
+                weights[i] = fd.percentageNormalized;
+                final double extraFee = (fd.getFee() - fd.avanza.productFee) * 0.01;
+                feeFactors[i] = Math.pow(1 - extraFee, 1 / periodsPerYear);
+                first = Math.max(first, store.start(series[i]));
+            }
+            start = first;
+        }
+
+        //Moves the holdings to date t and returns their total value.
+        private double step(final double[] holdings, final int t, final boolean rebalance) {
+            double value = 0;
+            for (int i = 0; i < series.length; ++i) {
+                holdings[i] *= store.get(series[i], t) / store.get(series[i], t - 1) * feeFactors[i];
+                value += holdings[i];
+            }
+            if (rebalance) {
+                for (int i = 0; i < series.length; ++i) {
+                    holdings[i] = value * weights[i];
+                }
+            }
+            return value;
+        }
+
+    }
+
+    //Daily values and returns of a benchmark, computed once per sweep.
+    private static class Benchmark {
+
+        private final int start;
+        private final double[] values, returns;
+
+        private Benchmark(final Compiled compiled, final int rebalanceDays) {
+            start = compiled.start;
+            if (start >= compiled.store.numDates() - 1) {
+                throw new IllegalArgumentException(String.format("No common price history for '%s'", compiled.name));
+            }
+            values = new double[compiled.store.numDates()];
+            returns = new double[values.length];
+            final double[] holdings = Arrays.copyOf(compiled.weights, compiled.weights.length);
+            values[start] = 1;
+            for (int t = start + 1; t < values.length; ++t) {
+                final double value = compiled.step(holdings, t, rebalanceDays > 0 && (t - start) % rebalanceDays == 0);
+                values[t] = value;
+                returns[t] = value / values[t - 1] - 1;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,353 @@
+package com.github.andreasarvidsson.funds;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.andreasarvidsson.funds.Rebalancer.Account;
+import com.github.andreasarvidsson.funds.ReportDefinition.FundDefinition;
+import com.github.andreasarvidsson.funds.ReportDefinition.PortfolioDefinition;
+import com.github.andreasarvidsson.funds.util.ColumnarExport;
+import com.github.andreasarvidsson.funds.util.CsvExport;
+import com.github.andreasarvidsson.funds.util.Export;
+import com.github.andreasarvidsson.funds.util.JsonLinesExport;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evaluates a directory with one portfolio definition per client, e.g.
+ * {"name": "Client", "funds": [{"name": "...", "percentage": 60, "fee": 0.2}]}.
+ * The name defaults to the file name.
+ *
+ * With --orders, clients that also list their current holdings in SEK and
+ * cash, e.g. "holdings": {"...": 12000}, "cash": 500, get the orders that
+ * rebalance them to their portfolio, see Rebalancer.
+ *
+ * Every fund is fetched once before the portfolios are evaluated in
+ * parallel. Files are streamed from the directory and only a few per thread
+ * are in flight, so memory doesn't grow with the number of files.
+ *
+ * Usage: Batch directory [--reports directory] [--csv|--jsonl|--columnar file] [--threads n]
+ *     [--orders file [--tolerance percentage points] [--new-money-only]]
+ *
+ * @author Andreas Arvidsson
+ */
+public class Batch {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int NUM_FETCH_THREADS = 8;
+    private static final int TASKS_PER_THREAD = 4;
+    private static final long PROGRESS_MILLIS = 1000;
+    private static final double DEFAULT_TOLERANCE = 5;
+
+    public interface FileTask {
+
+        void run(final File file) throws IOException;
+    }
+
+    private final int numThreads;
+    private final File reportsDir;
+    private final Export export;
+    private final Set<String> missingFunds = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger numFailed = new AtomicInteger();
+    private final AtomicLong lastProgress = new AtomicLong();
+    private Covariance covariance;
+    private Writer orders;
+    private double tolerance;
+    private boolean newMoneyOnly;
+
+    public static void main(final String[] args) throws IOException {
+        File dir = null, reportsDir = null, exportFile = null, ordersFile = null;
+        String exportType = null;
+        double tolerance = DEFAULT_TOLERANCE;
+        boolean newMoneyOnly = false;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "--reports":
+                    reportsDir = new File(args[++i]);
+                    break;
+                case "--csv":
+                case "--jsonl":
+                case "--columnar":
+                    exportType = args[i];
+                    exportFile = new File(args[++i]);
+                    break;
+                case "--threads":
+                    numThreads = Integer.parseInt(args[++i]);
+                    break;
+                case "--orders":
+                    ordersFile = new File(args[++i]);
+                    break;
+                case "--tolerance":
+                    tolerance = Double.parseDouble(args[++i]);
+                    break;
+                case "--new-money-only":
+                    newMoneyOnly = true;
+                    break;
+                default:
+                    dir = new File(args[i]);
+            }
+        }
+        if (dir == null || !dir.isDirectory()) {
+            System.err.println("Usage: Batch directory [--reports directory] [--csv|--jsonl|--columnar file] [--threads n]"
+                    + " [--orders file [--tolerance percentage points] [--new-money-only]]");
+            System.exit(1);
+        }
+        if (reportsDir != null) {
+            reportsDir.mkdirs();
+        }
+        try (final Export export = createExport(exportType, exportFile);
+                final Writer orders = ordersFile != null
+                        ? new BufferedWriter(new OutputStreamWriter(new FileOutputStream(ordersFile), StandardCharsets.UTF_8))
+                        : null) {
+            final Batch batch = new Batch(numThreads, reportsDir, export);
+            if (orders != null) {
+                batch.setOrders(orders, tolerance, newMoneyOnly);
+            }
+            batch.run(dir);
+        }
+    }
+
+    /**
+     * @param reportsDir Directory for one ascii report per client, or null.
+     * @param export Combined export of all clients, or null.
+     */
+    public Batch(final int numThreads, final File reportsDir, final Export export) {
+        this.numThreads = numThreads;
+        this.reportsDir = reportsDir;
+        this.export = export;
+    }
+
+    /**
+     * Writes the rebalancing orders of clients with holdings as CSV.
+     *
+     * @param tolerance Band around the target weights in percentage points.
+     * @param newMoneyOnly Only buy with the cash, never sell.
+     */
+    public void setOrders(final Writer orders, final double tolerance, final boolean newMoneyOnly) {
+        this.orders = orders;
+        this.tolerance = tolerance;
+        this.newMoneyOnly = newMoneyOnly;
+    }
+
+    public void run(final File dir) throws IOException {
+        final long t0 = System.nanoTime();
+        final Set<String> fundNames = ConcurrentHashMap.newKeySet();
+        forEachFile(dir, numThreads, "Läser", file -> {
+            final ClientDefinition cd = load(file);
+            cd.funds.forEach(fund -> {
+                fundNames.add(fund.name);
+            });
+            if (orders != null && cd.holdings != null) {
+                fundNames.addAll(cd.holdings.keySet());
+            }
+        });
+        final long t1 = System.nanoTime();
+        prefetch(fundNames);
+        final long t2 = System.nanoTime();
+        numFailed.set(0);
+        if (orders != null) {
+            orders.write(Rebalancer.CSV_HEADER);
+        }
+        final int numFiles = forEachFile(dir, numThreads, "Utvärderar", this::evaluate);
+        if (orders != null) {
+            orders.flush();
+        }
+        final long t3 = System.nanoTime();
+
+        final double evalTime = (t3 - t2) * 1e-9;
+        System.out.printf("Filer: %d, misslyckade: %d\n", numFiles, numFailed.get());
+        System.out.printf("Fonder: %d, saknas: %d\n", fundNames.size(), missingFunds.size());
+        System.out.printf("Läsning: %.1fs, hämtning: %.1fs, utvärdering: %.1fs (%.0f portföljer/s)\n",
+                (t1 - t0) * 1e-9, (t2 - t1) * 1e-9, evalTime, evalTime > 0 ? numFiles / evalTime : 0);
+    }
+
+    private void prefetch(final Set<String> fundNames) throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(NUM_FETCH_THREADS);
+        final List<AvanzaFund> funds = Collections.synchronizedList(new ArrayList());
+        fundNames.forEach(name -> {
+            executor.execute(() -> {
+                try {
+                    funds.add(Avanza.getFund(name));
+                }
+                catch (final IOException | NoSuchElementException e) {
+                    missingFunds.add(name);
+                    System.err.printf("Can't fetch '%s': %s\n", name, e);
+                }
+            });
+        });
+        await(executor);
+        //Cached in memory for all portfolios.
+        Morningstar.get(funds);
+        //One matrix for all funds instead of one per client.
+        if (funds.size() > 1) {
+            try {
+                covariance = Covariance.get(Avanza.DATA_SOURCE, Covariance.withPriceHistory(Avanza.DATA_SOURCE, funds));
+            }
+            catch (final IOException | RuntimeException e) {
+                System.err.printf("No covariance, using weighted standard deviations: %s\n", e);
+            }
+        }
+    }
+
+    private void evaluate(final File file) throws IOException {
+        final ClientDefinition pd = load(file);
+        for (final FundDefinition fund : pd.funds) {
+            if (missingFunds.contains(fund.name)) {
+                throw new NoSuchElementException(String.format("Missing fund '%s'", fund.name));
+            }
+        }
+        final Portfolio portfolio = pd.toPortfolio(Collections.emptyMap());
+        if (covariance != null && covariance.contains(portfolio)) {
+            portfolio.applyCovariance(covariance);
+        }
+        if (orders != null && pd.holdings != null) {
+            writeOrders(pd, portfolio);
+        }
+        if (reportsDir == null) {
+            if (export != null) {
+                new Result(export).add(portfolio);
+            }
+            return;
+        }
+        final File reportFile = new File(reportsDir, getBaseName(file) + ".txt");
+        try (final Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(reportFile), StandardCharsets.UTF_8))) {
+            final Result result = new Result(writer, false);
+            if (export != null) {
+                result.addExport(export);
+            }
+            result.add(portfolio);
+        }
+    }
+
+    private int forEachFile(
+            final File dir,
+            final int numThreads,
+            final String label,
+            final FileTask task) throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        //Limits the number of files in flight.
+        final Semaphore permits = new Semaphore(numThreads * TASKS_PER_THREAD);
+        final AtomicInteger numDone = new AtomicInteger();
+        final long t0 = System.currentTimeMillis();
+        int numFiles = 0;
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath(), "*.json")) {
+            for (final Path path : stream) {
+                permits.acquireUninterruptibly();
+                ++numFiles;
+                executor.execute(() -> {
+                    try {
+                        task.run(path.toFile());
+                    }
+                    catch (final IOException | RuntimeException e) {
+                        numFailed.incrementAndGet();
+                        System.err.printf("%s: %s\n", path.getFileName(), e);
+                    }
+                    finally {
+                        permits.release();
+                        printProgress(label, numDone.incrementAndGet(), t0, false);
+                    }
+                });
+            }
+        }
+        finally {
+            await(executor);
+        }
+        printProgress(label, numDone.get(), t0, true);
+        System.err.println();
+        return numFiles;
+    }
+
+    private void printProgress(final String label, final int numDone, final long t0, final boolean force) {
+        final long now = System.currentTimeMillis();
+        final long last = lastProgress.get();
+        if (!force && (now - last < PROGRESS_MILLIS || !lastProgress.compareAndSet(last, now))) {
+            return;
+        }
+        final double time = (now - t0) * 0.001;
+        System.err.printf("\r%s: %d filer, %.0f/s   ", label, numDone, time > 0 ? numDone / time : 0);
+    }
+
+    //Holdings are by the resolved fund names, same as the portfolio.
+    private void writeOrders(final ClientDefinition cd, final Portfolio portfolio) throws IOException {
+        final Map<String, Double> holdings = new LinkedHashMap();
+        for (final Map.Entry<String, Double> e : cd.holdings.entrySet()) {
+            holdings.merge(Avanza.getFund(e.getKey()).name, e.getValue(), Double::sum);
+        }
+        final Rebalancer rebalancer = new Rebalancer(portfolio, tolerance, newMoneyOnly);
+        final String csv = Rebalancer.toCsv(rebalancer.plan(new Account(cd.name, rebalancer, holdings, cd.cash)));
+        synchronized (orders) {
+            orders.write(csv);
+        }
+    }
+
+    private static ClientDefinition load(final File file) throws IOException {
+        final ClientDefinition pd = MAPPER.readValue(file, ClientDefinition.class);
+        if (pd.name == null) {
+            pd.name = getBaseName(file);
+        }
+        pd.validate();
+        return pd;
+    }
+
+    private static String getBaseName(final File file) {
+        final String name = file.getName();
+        return name.substring(0, name.length() - ".json".length());
+    }
+
+    private static Export createExport(final String type, final File file) throws IOException {
+        if (type == null) {
+            return null;
+        }
+        switch (type) {
+            case "--csv":
+                return new CsvExport(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+            case "--jsonl":
+                return new JsonLinesExport(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+            default:
+                return new ColumnarExport(new FileOutputStream(file));
+        }
+    }
+
+    private static void await(final ExecutorService executor) {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class ClientDefinition extends PortfolioDefinition {
+
+        //Current amount in SEK per fund name, for the orders.
+        public Map<String, Double> holdings;
+        public double cash;
+
+    }
+
+}
@@ -145,6 +145,15 @@ public enum Country {
             this.name = name;
         }
 
+        public static Region fromString(final String regionName) {
+            for (final Region region : values()) {
+                if (region.name.equalsIgnoreCase(regionName)) {
+                    return region;
+                }
+            }
+            throw new IllegalArgumentException(String.format("Cant find region: %s", regionName));
+        }
+
         @Override
         public String toString() {
             return name;
@@ -0,0 +1,302 @@
+package com.github.andreasarvidsson.funds;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.github.andreasarvidsson.funds.util.FileCache;
+import com.github.andreasarvidsson.funds.util.Fingerprint;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Annualized covariance matrix of fund returns, computed from price
+ * histories over the dates each pair of funds has in common.
+ *
+ * @author Andreas Arvidsson
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class Covariance {
+
+    private static final int VERSION = 2;
+    private static final int MIN_RETURNS = 2;
+    private static final double DAYS_PER_YEAR = 365.25;
+    private static final double MILLIS_PER_DAY = 86400000;
+    private static final Map<String, Covariance> CACHE = new ConcurrentHashMap();
+
+    public final String date;
+    public final List<String> names;
+    public final double[][] matrix;
+    private final Map<String, Integer> indexes = new HashMap();
+
+    @JsonCreator
+    public Covariance(
+            @JsonProperty("date") final String date,
+            @JsonProperty("names") final List<String> names,
+            @JsonProperty("matrix") final double[][] matrix) {
+        this.date = date;
+        this.names = names;
+        this.matrix = matrix;
+        for (int i = 0; i < names.size(); ++i) {
+            indexes.put(names.get(i), i);
+        }
+    }
+
+    /**
+     * Covariance of all funds in the given portfolios, cached per date,
+     * source and set of funds.
+     */
+    public static Covariance get(final FundDataSource source, final Portfolio... portfolios) throws IOException {
+        final Map<String, AvanzaFund> funds = new LinkedHashMap();
+        for (final Portfolio portfolio : portfolios) {
+            portfolio.funds.forEach(fd -> {
+                funds.putIfAbsent(fd.avanza.name, fd.avanza);
+            });
+        }
+        return get(source, new ArrayList(funds.values()));
+    }
+
+    public static Covariance get(final FundDataSource source, final List<AvanzaFund> funds) throws IOException {
+        final String date = new SimpleDateFormat("yyyy-MM-dd").format(new Date());
+        final List<String> names = new ArrayList();
+        funds.forEach(fund -> {
+            names.add(fund.name);
+        });
+        Collections.sort(names);
+        final Fingerprint fingerprint = new Fingerprint().add(source.getId());
+        names.forEach(fingerprint::add);
+        final String key = String.format("%s_%s", date, fingerprint);
+        final Covariance cached = CACHE.get(key);
+        if (cached != null && cached.names.equals(names)) {
+            return cached;
+        }
+        final String fileName = String.format("covariance_v%d_%s", VERSION, key);
+        Covariance covariance = FileCache.load(fileName, Covariance.class);
+        if (covariance == null || !covariance.names.equals(names)) {
+            final Map<String, AvanzaFund> byName = new HashMap();
+            funds.forEach(fund -> {
+                byName.put(fund.name, fund);
+            });
+            final List<PriceHistory> histories = new ArrayList();
+            for (final String name : names) {
+                histories.add(source.getPriceHistory(byName.get(name)));
+            }
+            covariance = compute(date, names, histories);
+            FileCache.store(fileName, covariance);
+        }
+        CACHE.put(key, covariance);
+        return covariance;
+    }
+
+    /**
+     * Estimate from each fund's volatility and a constant correlation, for
+     * when no price history is available.
+     */
+    public static Covariance estimate(final List<AvanzaFund> funds, final double correlation) {
+        final List<String> names = new ArrayList();
+        final int size = funds.size();
+        final double[][] matrix = new double[size][size];
+        for (int i = 0; i < size; ++i) {
+            names.add(funds.get(i).name);
+            final double vi = funds.get(i).getVolatility() * 0.01;
+            for (int j = 0; j < size; ++j) {
+                final double vj = funds.get(j).getVolatility() * 0.01;
+                matrix[i][j] = vi * vj * (i == j ? 1 : correlation);
+            }
+        }
+        return new Covariance(null, names, matrix);
+    }
+
+    /**
+     * Each pair of funds is estimated over the dates both have prices for,
+     * so a short history only limits its own row. Pairs with too little
+     * overlap are NaN. The matrix may then not be positive semi-definite,
+     * volatilities are clamped at zero.
+     */
+    public static Covariance compute(final String date, final List<String> names, final List<PriceHistory> histories) {
+        final int size = histories.size();
+        final double[][] matrix = new double[size][size];
+        //Rows are independent and computed in parallel.
+        IntStream.range(0, size).parallel().forEach(i -> {
+            for (int j = i; j < size; ++j) {
+                matrix[i][j] = covariance(histories.get(i), histories.get(j));
+                matrix[j][i] = matrix[i][j];
+            }
+        });
+        return new Covariance(date, names, matrix);
+    }
+
+    /**
+     * The funds whose price history the source can provide. Missing
+     * histories are logged instead of failing a matrix over many funds.
+     */
+    public static List<AvanzaFund> withPriceHistory(final FundDataSource source, final List<AvanzaFund> funds) {
+        final List<AvanzaFund> res = new ArrayList();
+        for (final AvanzaFund fund : funds) {
+            try {
+                source.getPriceHistory(fund);
+                res.add(fund);
+            }
+            catch (final IOException | RuntimeException e) {
+                System.err.printf("No price history for '%s': %s\n", fund.name, e);
+            }
+        }
+        return res;
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    public int indexOf(final String name) {
+        final Integer index = indexes.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException(String.format("No covariance for '%s'", name));
+        }
+        return index;
+    }
+
+    public double correlation(final int i, final int j) {
+        return matrix[i][j] / Math.sqrt(matrix[i][i] * matrix[j][j]);
+    }
+
+    /**
+     * Portfolio weights ordered as this matrix.
+     */
+    public double[] getWeights(final Portfolio portfolio) {
+        final double[] weights = new double[size()];
+        portfolio.funds.forEach(fd -> {
+            weights[indexOf(fd.avanza.name)] += fd.percentageNormalized;
+        });
+        return weights;
+    }
+
+    /**
+     * Annualized volatility in percent, sqrt(wᵀΣw).
+     */
+    public double volatility(final double[] weights) {
+        double variance = 0;
+        for (int i = 0; i < weights.length; ++i) {
+            if (weights[i] == 0) {
+                continue;
+            }
+            final double[] row = matrix[i];
+            double sum = 0;
+            for (int j = 0; j < weights.length; ++j) {
+                //Skipped so pairs without overlap outside the portfolio don't matter.
+                if (weights[j] != 0) {
+                    sum += row[j] * weights[j];
+                }
+            }
+            variance += weights[i] * sum;
+        }
+        return Math.sqrt(Math.max(0, variance)) * 100;
+    }
+
+    /**
+     * Volatility from the sub-matrix of the portfolio's funds, so a matrix
+     * over many funds can be shared by small portfolios.
+     */
+    public double volatility(final Portfolio portfolio) {
+        final int size = portfolio.funds.size();
+        final int[] subIndexes = new int[size];
+        final double[] weights = new double[size];
+        for (int i = 0; i < size; ++i) {
+            final FundData fd = portfolio.funds.get(i);
+            subIndexes[i] = indexOf(fd.avanza.name);
+            weights[i] = fd.percentageNormalized;
+        }
+        double variance = 0;
+        for (int i = 0; i < size; ++i) {
+            final double[] row = matrix[subIndexes[i]];
+            double sum = 0;
+            for (int j = 0; j < size; ++j) {
+                sum += row[subIndexes[j]] * weights[j];
+            }
+            variance += weights[i] * sum;
+        }
+        if (Double.isNaN(variance)) {
+            throw new IllegalArgumentException("Not enough common price history for covariance");
+        }
+        return Math.sqrt(Math.max(0, variance)) * 100;
+    }
+
+    /**
+     * True if the matrix covers all funds in the portfolio, with enough
+     * common price history for every pair of them.
+     */
+    public boolean contains(final Portfolio portfolio) {
+        for (final FundData fd : portfolio.funds) {
+            if (!indexes.containsKey(fd.avanza.name)) {
+                return false;
+            }
+        }
+        for (final FundData fd1 : portfolio.funds) {
+            for (final FundData fd2 : portfolio.funds) {
+                if (Double.isNaN(matrix[indexOf(fd1.avanza.name)][indexOf(fd2.avanza.name)])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public double[] volatilities(final double[][] weights) {
+        final double[] res = new double[weights.length];
+        IntStream.range(0, weights.length).parallel().forEach(i -> {
+            res[i] = volatility(weights[i]);
+        });
+        return res;
+    }
+
+    //Annualized covariance of the log returns between the dates both histories have.
+    private static double covariance(final PriceHistory h1, final PriceHistory h2) {
+        final int[] indexes1 = new int[Math.min(h1.size(), h2.size())];
+        final int[] indexes2 = new int[indexes1.length];
+        int numDates = 0;
+        for (int i = 0, j = 0; i < h1.size() && j < h2.size();) {
+            if (h1.dates[i] < h2.dates[j]) {
+                ++i;
+            }
+            else if (h1.dates[i] > h2.dates[j]) {
+                ++j;
+            }
+            else {
+                indexes1[numDates] = i++;
+                indexes2[numDates++] = j++;
+            }
+        }
+        final int numReturns = numDates - 1;
+        if (numReturns < MIN_RETURNS) {
+            return Double.NaN;
+        }
+        //Log returns, de-meaned so the covariance is a plain dot product.
+        final double[] r1 = new double[numReturns];
+        final double[] r2 = new double[numReturns];
+        double mean1 = 0, mean2 = 0;
+        for (int t = 0; t < numReturns; ++t) {
+            r1[t] = Math.log(h1.values[indexes1[t + 1]] / h1.values[indexes1[t]]);
+            r2[t] = Math.log(h2.values[indexes2[t + 1]] / h2.values[indexes2[t]]);
+            mean1 += r1[t];
+            mean2 += r2[t];
+        }
+        mean1 /= numReturns;
+        mean2 /= numReturns;
+        double sum = 0;
+        for (int t = 0; t < numReturns; ++t) {
+            sum += (r1[t] - mean1) * (r2[t] - mean2);
+        }
+        final double periodsPerYear = DAYS_PER_YEAR * MILLIS_PER_DAY * numReturns
+                / (h1.dates[indexes1[numDates - 1]] - h1.dates[indexes1[0]]);
+        return sum * periodsPerYear / (numReturns - 1);
+    }
+
+}
@@ -0,0 +1,253 @@
+package com.github.andreasarvidsson.funds;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Long only mean-variance efficient portfolios for a set of funds. Each
+ * point maximizes μᵀw - λwᵀΣw for a risk aversion λ, solved by projected
+ * gradient ascent. Adjacent points are warm started from each other.
+ *
+ * @author Andreas Arvidsson
+ */
+public class EfficientFrontier {
+
+    private static final double DEFAULT_CORRELATION = 0.8;
+    private static final int DEFAULT_POINTS = 20;
+    private static final int POINTS_PER_TASK = 5;
+    private static final int MAX_ITERATIONS = 20000;
+    private static final double TOLERANCE = 1e-10;
+    private static final double MIN_WEIGHT = 1e-4;
+    private static final double MIN_LAMBDA = 0.1, MAX_LAMBDA = 1000;
+
+    public final String name;
+    public final List<String> funds = new ArrayList();
+    public final List<Point> points;
+    private final List<Double> fees = new ArrayList();
+    private final double[] returns;
+    private final double[][] covariance;
+
+    public EfficientFrontier(final Portfolio portfolio, final Covariance covariance) throws IOException {
+        this(portfolio.name, toFunds(portfolio), toFees(portfolio), covariance, DEFAULT_POINTS);
+    }
+
+    public EfficientFrontier(final Rankings rankings, final Covariance covariance) throws IOException {
+        this(rankings.name, toFunds(rankings), toFees(rankings), covariance, DEFAULT_POINTS);
+    }
+
+    /**
+     * @param covariance May be null, in which case it's estimated from each
+     * fund's volatility. Same if any pair of funds lacks common history.
+     */
+    public EfficientFrontier(
+            final String name,
+            final List<AvanzaFund> avanzaFunds,
+            final List<Double> fees,
+            final Covariance covariance,
+            final int numPoints) throws IOException {
+        this.name = name;
+        final Covariance cov = covariance != null && isComplete(covariance, avanzaFunds)
+                ? covariance
+                : Covariance.estimate(avanzaFunds, DEFAULT_CORRELATION);
+        final int size = avanzaFunds.size();
+        returns = new double[size];
+        this.covariance = new double[size][size];
+        final int[] indexes = new int[size];
+        for (int i = 0; i < size; ++i) {
+            final AvanzaFund fund = avanzaFunds.get(i);
+            funds.add(fund.name);
+            this.fees.add(fees.get(i));
+            indexes[i] = cov.indexOf(fund.name);
+            final Double annualReturn = fund.getAnnualReturn();
+            //Developments are net of the product fee. Swap it for the actual fee.
+            returns[i] = ((annualReturn != null ? annualReturn : 0) + fund.productFee - fees.get(i)) * 0.01;
+        }
+        for (int i = 0; i < size; ++i) {
+            for (int j = 0; j < size; ++j) {
+                this.covariance[i][j] = cov.matrix[indexes[i]][indexes[j]];
+            }
+        }
+        final List<Point> res = new ArrayList();
+        for (final double[] weights : solve(numPoints)) {
+            res.add(new Point(
+                    weights,
+                    dot(returns, weights) * 100,
+                    volatility(weights) * 100,
+                    toPortfolio(weights)
+            ));
+        }
+        points = res;
+    }
+
+    private double[][] solve(final int numPoints) {
+        final double[][] res = new double[numPoints][];
+        final int numTasks = (numPoints + POINTS_PER_TASK - 1) / POINTS_PER_TASK;
+        //Chunks of adjacent points run in parallel. Within a chunk each point starts from the previous solution.
+        IntStream.range(0, numTasks).parallel().forEach(task -> {
+            double[] weights = null;
+            final int to = Math.min(numPoints, (task + 1) * POINTS_PER_TASK);
+            for (int i = task * POINTS_PER_TASK; i < to; ++i) {
+                final double t = numPoints > 1 ? (double) i / (numPoints - 1) : 0;
+                final double lambda = MIN_LAMBDA * Math.pow(MAX_LAMBDA / MIN_LAMBDA, t);
+                weights = solve(lambda, weights);
+                res[i] = weights;
+            }
+        });
+        return res;
+    }
+
+    private double[] solve(final double lambda, final double[] start) {
+        final int size = returns.length;
+        double[] weights;
+        if (start != null) {
+            weights = Arrays.copyOf(start, size);
+        }
+        else {
+            weights = new double[size];
+            Arrays.fill(weights, 1.0 / size);
+        }
+        //Step size from a bound of the largest eigenvalue of the hessian.
+        double maxRowSum = 0;
+        for (final double[] row : covariance) {
+            double sum = 0;
+            for (final double v : row) {
+                sum += Math.abs(v);
+            }
+            maxRowSum = Math.max(maxRowSum, sum);
+        }
+        final double step = 1 / (2 * lambda * Math.max(maxRowSum, 1e-12));
+        final double[] next = new double[size];
+        for (int iteration = 0; iteration < MAX_ITERATIONS; ++iteration) {
+            for (int i = 0; i < size; ++i) {
+                double gradient = returns[i];
+                for (int j = 0; j < size; ++j) {
+                    gradient -= 2 * lambda * covariance[i][j] * weights[j];
+                }
+                next[i] = weights[i] + step * gradient;
+            }
+            projectToSimplex(next);
+            double change = 0;
+            for (int i = 0; i < size; ++i) {
+                change += Math.abs(next[i] - weights[i]);
+                weights[i] = next[i];
+            }
+            if (change < TOLERANCE) {
+                break;
+            }
+        }
+        return weights;
+    }
+
+    //Euclidean projection onto {w >= 0, sum(w) = 1}.
+    private static void projectToSimplex(final double[] values) {
+        final double[] sorted = Arrays.copyOf(values, values.length);
+        Arrays.sort(sorted);
+        double sum = 0, theta = 0;
+        for (int i = sorted.length - 1; i >= 0; --i) {
+            sum += sorted[i];
+            final double t = (sum - 1) / (sorted.length - i);
+            if (i == 0 || sorted[i - 1] <= t) {
+                theta = t;
+                break;
+            }
+        }
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = Math.max(0, values[i] - theta);
+        }
+    }
+
+    private double volatility(final double[] weights) {
+        double variance = 0;
+        for (int i = 0; i < weights.length; ++i) {
+            variance += weights[i] * dot(covariance[i], weights);
+        }
+        return Math.sqrt(Math.max(0, variance));
+    }
+
+    private static double dot(final double[] a, final double[] b) {
+        double res = 0;
+        for (int i = 0; i < a.length; ++i) {
+            res += a[i] * b[i];
+        }
+        return res;
+    }
+
+    private Portfolio toPortfolio(final double[] weights) throws IOException {
+        final List<SelectedFund> selectedFunds = new ArrayList();
+        for (int i = 0; i < weights.length; ++i) {
+            if (weights[i] >= MIN_WEIGHT) {
+                selectedFunds.add(new SelectedFund(weights[i] * 100, funds.get(i), fees.get(i)));
+            }
+        }
+        return new Portfolio(name, selectedFunds);
+    }
+
+    private static boolean isComplete(final Covariance covariance, final List<AvanzaFund> funds) {
+        for (final AvanzaFund f1 : funds) {
+            for (final AvanzaFund f2 : funds) {
+                if (Double.isNaN(covariance.matrix[covariance.indexOf(f1.name)][covariance.indexOf(f2.name)])) {
+                    System.err.printf("No common price history for '%s' and '%s', estimating covariance\n", f1.name, f2.name);
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    static List<AvanzaFund> toFunds(final Portfolio portfolio) {
+        final List<AvanzaFund> res = new ArrayList();
+        portfolio.funds.forEach(fd -> {
+            res.add(fd.avanza);
+        });
+        return res;
+    }
+
+    private static List<Double> toFees(final Portfolio portfolio) {
+        final List<Double> res = new ArrayList();
+        portfolio.funds.forEach(fd -> {
+            res.add(fd.getFee());
+        });
+        return res;
+    }
+
+    static List<AvanzaFund> toFunds(final Rankings rankings) {
+        final List<AvanzaFund> res = new ArrayList();
+        rankings.funds.forEach(fr -> {
+            res.add(fr.avanza);
+        });
+        return res;
+    }
+
+    private static List<Double> toFees(final Rankings rankings) {
+        final List<Double> res = new ArrayList();
+        rankings.funds.forEach(fr -> {
+            res.add(fr.getFee());
+        });
+        return res;
+    }
+
+    public static class Point {
+
+        public final double[] weights;
+        //Expected return and volatility in percent.
+        public final double expectedReturn, volatility;
+        //Fee, regions and EM/FM share of the point.
+        public final Portfolio portfolio;
+
+        private Point(
+                final double[] weights,
+                final double expectedReturn,
+                final double volatility,
+                final Portfolio portfolio) {
+            this.weights = weights;
+            this.expectedReturn = expectedReturn;
+            this.volatility = volatility;
+            this.portfolio = portfolio;
+        }
+
+    }
+
+}
@@ -0,0 +1,236 @@
+package com.github.andreasarvidsson.funds;
+
+import com.github.andreasarvidsson.funds.Country.Market;
+import com.github.andreasarvidsson.funds.Country.Region;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exposure in percent per sector × region × market, with rollups over every
+ * combination of dimensions precomputed. Avanza reports sectors and
+ * countries separately, so a fund's cube is estimated assuming they are
+ * independent.
+ *
+ * @author Andreas Arvidsson
+ */
+public class ExposureCube {
+
+    public static final int ALL = -1;
+    private static final int NUM_REGIONS = Region.values().length;
+    private static final int NUM_MARKETS = Market.values().length;
+    private static final String UNKNOWN_SECTOR = "Okänd";
+    private static final List<String> SECTORS = new ArrayList();
+    private static final Map<String, Integer> SECTOR_IDS = new HashMap();
+
+    public final int numSectors;
+    private final double total;
+    //Non-empty cells, index = (sector * NUM_REGIONS + region) * NUM_MARKETS + market.
+    private final int[] cells;
+    private final double[] weights;
+    private final double[] sectors, regions, markets;
+    private final double[] sectorRegions, sectorMarkets, regionMarkets;
+
+    private ExposureCube(final int numSectors, final double[] dense) {
+        this.numSectors = numSectors;
+        sectors = new double[numSectors];
+        regions = new double[NUM_REGIONS];
+        markets = new double[NUM_MARKETS];
+        sectorRegions = new double[numSectors * NUM_REGIONS];
+        sectorMarkets = new double[numSectors * NUM_MARKETS];
+        regionMarkets = new double[NUM_REGIONS * NUM_MARKETS];
+        int numCells = 0;
+        for (final double value : dense) {
+            if (value != 0) {
+                ++numCells;
+            }
+        }
+        cells = new int[numCells];
+        weights = new double[numCells];
+        double sum = 0;
+        int index = 0;
+        for (int cell = 0; cell < dense.length; ++cell) {
+            final double value = dense[cell];
+            if (value == 0) {
+                continue;
+            }
+            cells[index] = cell;
+            weights[index++] = value;
+            final int market = cell % NUM_MARKETS;
+            final int region = cell / NUM_MARKETS % NUM_REGIONS;
+            final int sector = cell / NUM_MARKETS / NUM_REGIONS;
+            sum += value;
+            sectors[sector] += value;
+            regions[region] += value;
+            markets[market] += value;
+            sectorRegions[sector * NUM_REGIONS + region] += value;
+            sectorMarkets[sector * NUM_MARKETS + market] += value;
+            regionMarkets[region * NUM_MARKETS + market] += value;
+        }
+        total = sum;
+    }
+
+    /**
+     * Estimated cube from country and sector exposures in percent.
+     */
+    public static ExposureCube estimate(final Map<String, Double> countries, final Map<String, Double> sectors) {
+        final double[] geography = new double[NUM_REGIONS * NUM_MARKETS];
+        countries.forEach((name, value) -> {
+            final Country country = Country.fromString(name);
+            geography[country.region.ordinal() * NUM_MARKETS + country.market.ordinal()] += value;
+        });
+        final Map<Integer, Double> sectorValues = new HashMap();
+        double sectorSum = 0;
+        for (final Map.Entry<String, Double> e : sectors.entrySet()) {
+            sectorValues.merge(getSectorId(e.getKey()), e.getValue(), Double::sum);
+            sectorSum += e.getValue();
+        }
+        if (sectorSum <= 0) {
+            sectorValues.put(getSectorId(UNKNOWN_SECTOR), 100.0);
+            sectorSum = 100;
+        }
+        final int numSectors = getNumSectors();
+        final double[] dense = new double[numSectors * NUM_REGIONS * NUM_MARKETS];
+        final double sectorScale = 1 / sectorSum;
+        sectorValues.forEach((sector, sectorValue) -> {
+            final int offset = sector * NUM_REGIONS * NUM_MARKETS;
+            for (int i = 0; i < geography.length; ++i) {
+                dense[offset + i] += sectorValue * sectorScale * geography[i];
+            }
+        });
+        return new ExposureCube(numSectors, dense);
+    }
+
+    public static ExposureCube estimate(final AvanzaFund fund) {
+        return estimate(toMap(fund.countryChartData), toMap(fund.sectorChartData));
+    }
+
+    /**
+     * Weighted sum of cubes, e.g. the funds of a portfolio.
+     */
+    public static ExposureCube sum(final List<ExposureCube> cubes, final double[] cubeWeights) {
+        final int numSectors = getNumSectors();
+        final double[] dense = new double[numSectors * NUM_REGIONS * NUM_MARKETS];
+        for (int i = 0; i < cubes.size(); ++i) {
+            final ExposureCube cube = cubes.get(i);
+            for (int j = 0; j < cube.cells.length; ++j) {
+                dense[cube.cells[j]] += cube.weights[j] * cubeWeights[i];
+            }
+        }
+        return new ExposureCube(numSectors, dense);
+    }
+
+    public static synchronized int getSectorId(final String sector) {
+        Integer id = SECTOR_IDS.get(sector);
+        if (id == null) {
+            id = SECTORS.size();
+            SECTORS.add(sector);
+            SECTOR_IDS.put(sector, id);
+        }
+        return id;
+    }
+
+    /**
+     * Id of a sector seen in fund data, or -1. Unlike getSectorId it never
+     * registers the sector.
+     */
+    public static synchronized int findSectorId(final String sector) {
+        return SECTOR_IDS.getOrDefault(sector, -1);
+    }
+
+    public static synchronized String getSectorName(final int id) {
+        return SECTORS.get(id);
+    }
+
+    public static synchronized int getNumSectors() {
+        return SECTORS.size();
+    }
+
+    /**
+     * Exposure in percent for a sector, region and market id, where ALL is
+     * a wildcard. Uses the precomputed rollups.
+     */
+    public double slice(final int sector, final int region, final int market) {
+        if (sector >= numSectors) {
+            return 0;
+        }
+        if (sector == ALL) {
+            if (region == ALL) {
+                return market == ALL ? total : markets[market];
+            }
+            return market == ALL ? regions[region] : regionMarkets[region * NUM_MARKETS + market];
+        }
+        if (region == ALL) {
+            return market == ALL ? sectors[sector] : sectorMarkets[sector * NUM_MARKETS + market];
+        }
+        if (market == ALL) {
+            return sectorRegions[sector * NUM_REGIONS + region];
+        }
+        return get((sector * NUM_REGIONS + region) * NUM_MARKETS + market);
+    }
+
+    /**
+     * Same as slice, with null as wildcard. Unknown sectors have no exposure.
+     */
+    public double slice(final String sector, final Region region, final Market market) {
+        final int sectorId;
+        if (sector == null) {
+            sectorId = ALL;
+        }
+        else {
+            sectorId = findSectorId(sector);
+            if (sectorId == -1) {
+                return 0;
+            }
+        }
+        return slice(
+                sectorId,
+                region != null ? region.ordinal() : ALL,
+                market != null ? market.ordinal() : ALL
+        );
+    }
+
+    /**
+     * One slice over many cubes, e.g. every portfolio in a report.
+     */
+    public static double[] slice(
+            final List<ExposureCube> cubes,
+            final String sector,
+            final Region region,
+            final Market market) {
+        final double[] res = new double[cubes.size()];
+        for (int i = 0; i < res.length; ++i) {
+            res[i] = cubes.get(i).slice(sector, region, market);
+        }
+        return res;
+    }
+
+    private double get(final int cell) {
+        int lo = 0, hi = cells.length - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (cells[mid] < cell) {
+                lo = mid + 1;
+            }
+            else if (cells[mid] > cell) {
+                hi = mid - 1;
+            }
+            else {
+                return weights[mid];
+            }
+        }
+        return 0;
+    }
+
+    private static Map<String, Double> toMap(final List<AvanzaFund.ChartData> chartData) {
+        final Map<String, Double> res = new HashMap();
+        if (chartData != null) {
+            chartData.forEach(data -> {
+                res.merge(data.name, data.y, Double::sum);
+            });
+        }
+        return res;
+    }
+
+}
@@ -7,6 +7,7 @@ package com.github.andreasarvidsson.funds;
 public class FundData {
 
     public final AvanzaFund avanza;
+    public final MorningstarFund morningstar;
     public final double percentage, percentageNormalized;
     private final Double fee;
 
@@ -15,9 +16,19 @@ public class FundData {
             final double percentageNormalized,
             final AvanzaFund avanza,
             final Double fee) {
+        this(percentage, percentageNormalized, avanza, null, fee);
+    }
+
+    public FundData(
+            final double percentage,
+            final double percentageNormalized,
+            final AvanzaFund avanza,
+            final MorningstarFund morningstar,
+            final Double fee) {
         this.percentage = percentage;
         this.percentageNormalized = percentageNormalized;
         this.avanza = avanza;
+        this.morningstar = morningstar;
         this.fee = fee;
     }
 
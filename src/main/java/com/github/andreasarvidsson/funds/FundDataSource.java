@@ -0,0 +1,21 @@
+package com.github.andreasarvidsson.funds;
+
+import java.io.IOException;
+
+/**
+ *
+ * @author Andreas Arvidsson
+ */
+public interface FundDataSource {
+
+    /**
+     * Identifies the data, so results computed from different sources are
+     * cached separately.
+     */
+    String getId();
+
+    AvanzaFund getFund(final String name) throws IOException;
+
+    PriceHistory getPriceHistory(final AvanzaFund fund) throws IOException;
+
+}
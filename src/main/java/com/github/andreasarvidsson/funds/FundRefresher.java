@@ -0,0 +1,160 @@
+package com.github.andreasarvidsson.funds;
+
+import com.github.andreasarvidsson.funds.util.FileCache;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes the loaded Avanza funds in the background of a long running
+ * process. Each cycle is delayed by the period plus or minus the jitter, so
+ * several processes don't hit Avanza at the same time. After each refresh
+ * the covariance matrix over all loaded funds is rebuilt, so requests only
+ * read sub-matrices of it and never compute or cache their own.
+ *
+ * @author Andreas Arvidsson
+ */
+public class FundRefresher implements Closeable {
+
+    private final long periodMillis;
+    private final double jitter;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService workers;
+    private volatile Covariance covariance;
+    private volatile long lastRefresh;
+    private volatile int numRefreshed, numFailed;
+
+    /**
+     * @param periodMillis Time between refreshes.
+     * @param jitter Fraction of the period to randomly add or subtract, e.g. 0.1.
+     * @param maxConcurrent Max number of funds fetched at the same time.
+     */
+    public FundRefresher(final long periodMillis, final double jitter, final int maxConcurrent) {
+        this.periodMillis = periodMillis;
+        this.jitter = jitter;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "fund-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        workers = Executors.newFixedThreadPool(maxConcurrent, r -> {
+            final Thread thread = new Thread(r, "fund-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Loads all funds in the file cache and builds the covariance matrix
+     * over them before the first refresh.
+     */
+    public void start() {
+        scheduler.execute(() -> {
+            try {
+                Avanza.getUniverse();
+            }
+            catch (final IOException | RuntimeException e) {
+                System.err.printf("Loading funds failed: %s\n", e);
+            }
+            updateCovariance();
+        });
+        schedule();
+    }
+
+    /**
+     * Refreshes all loaded funds now. A fund that fails keeps its old data.
+     */
+    public void refresh() {
+        FileCache.expire();
+        final List<AvanzaFund> funds = Avanza.getLoadedFunds();
+        final List<Future<AvanzaFund>> futures = new ArrayList();
+        funds.forEach(fund -> {
+            futures.add(workers.submit(() -> Avanza.refresh(fund)));
+        });
+        int refreshed = 0, failed = 0;
+        for (int i = 0; i < futures.size(); ++i) {
+            try {
+                futures.get(i).get();
+                ++refreshed;
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (final ExecutionException e) {
+                ++failed;
+                System.err.printf("Refresh of '%s' failed: %s\n", funds.get(i).name, e.getCause());
+            }
+        }
+        numRefreshed = refreshed;
+        numFailed = failed;
+        lastRefresh = System.currentTimeMillis();
+        updateCovariance();
+    }
+
+    /**
+     * Covariance over the funds loaded at the last refresh, null if none
+     * could be computed. Funds loaded since aren't covered.
+     */
+    public Covariance getCovariance() {
+        return covariance;
+    }
+
+    /**
+     * Time of the last completed refresh, 0 if none.
+     */
+    public long getLastRefresh() {
+        return lastRefresh;
+    }
+
+    public int getNumRefreshed() {
+        return numRefreshed;
+    }
+
+    public int getNumFailed() {
+        return numFailed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private void updateCovariance() {
+        final List<AvanzaFund> funds = Covariance.withPriceHistory(Avanza.DATA_SOURCE, Avanza.getLoadedFunds());
+        if (funds.size() < 2) {
+            return;
+        }
+        try {
+            covariance = Covariance.get(Avanza.DATA_SOURCE, funds);
+        }
+        catch (final IOException | RuntimeException e) {
+            System.err.printf("No covariance, keeping the previous: %s\n", e);
+        }
+    }
+
+    private void schedule() {
+        final double random = jitter > 0 ? ThreadLocalRandom.current().nextDouble(-jitter, jitter) : 0;
+        final long delay = Math.max(0, (long) (periodMillis * (1 + random)));
+        scheduler.schedule(() -> {
+            try {
+                refresh();
+            }
+            finally {
+                if (!scheduler.isShutdown()) {
+                    schedule();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+}
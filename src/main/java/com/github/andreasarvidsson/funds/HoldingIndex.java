@@ -0,0 +1,161 @@
+package com.github.andreasarvidsson.funds;
+
+import com.github.andreasarvidsson.funds.AvanzaFund.ChartData;
+import com.github.andreasarvidsson.funds.util.Pair;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Inverted index from canonical holding id to the funds and portfolios
+ * holding it.
+ * Funds are added as they load into the Avanza registry. Portfolios are
+ * added explicitly by whoever owns them, e.g. Report for the portfolios of
+ * the current definition.
+ *
+ * @author Andreas Arvidsson
+ */
+public abstract class HoldingIndex {
+
+    //Holding id -> funds holding it.
+    private static final Map<Integer, List<Posting>> POSTINGS = new HashMap();
+    //Fund name -> ids of its holdings.
+    private static final Map<String, List<Integer>> FUND_KEYS = new HashMap();
+    //Fund name -> portfolios holding the fund and the fund's weight in them.
+    private static final Map<String, List<Pair<Portfolio, Double>>> FUND_PORTFOLIOS = new HashMap();
+    private static final Set<Portfolio> PORTFOLIOS = Collections.newSetFromMap(new IdentityHashMap());
+
+    public static synchronized void add(final AvanzaFund fund) {
+        remove(fund.name);
+        //Name variants within the fund are merged into one posting.
+        final Map<Integer, Double> weights = new LinkedHashMap();
+        for (final ChartData holding : fund.holdingChartData) {
+            weights.merge(HoldingNames.getId(holding.name), holding.y, Double::sum);
+        }
+        weights.forEach((key, weight) -> {
+            POSTINGS.computeIfAbsent(key, k -> new ArrayList()).add(new Posting(fund.name, weight));
+        });
+        FUND_KEYS.put(fund.name, new ArrayList(weights.keySet()));
+    }
+
+    public static synchronized void add(final Portfolio portfolio) {
+        if (!PORTFOLIOS.add(portfolio)) {
+            return;
+        }
+        portfolio.funds.forEach(fd -> {
+            FUND_PORTFOLIOS.computeIfAbsent(fd.avanza.name, k -> new ArrayList())
+                    .add(new Pair(portfolio, fd.percentageNormalized));
+        });
+    }
+
+    public static synchronized void clearPortfolios() {
+        PORTFOLIOS.clear();
+        FUND_PORTFOLIOS.clear();
+    }
+
+    /**
+     * Funds holding the company and its weight in them, largest first.
+     */
+    public static synchronized List<Pair<String, Double>> getFunds(final String company) {
+        final List<Pair<String, Double>> res = new ArrayList();
+        POSTINGS.getOrDefault(HoldingNames.findId(company), Collections.emptyList()).forEach(posting -> {
+            res.add(new Pair(posting.fund, posting.weight));
+        });
+        Collections.sort(res, (a, b) -> Double.compare(b.second(), a.second()));
+        return res;
+    }
+
+    /**
+     * Total exposure to the company in every indexed portfolio, largest first.
+     */
+    public static synchronized List<Pair<Portfolio, Double>> getPortfolios(final String company) {
+        final Map<Portfolio, Double> exposures = new HashMap();
+        POSTINGS.getOrDefault(HoldingNames.findId(company), Collections.emptyList()).forEach(posting -> {
+            FUND_PORTFOLIOS.getOrDefault(posting.fund, Collections.emptyList()).forEach(p -> {
+                exposures.merge(p.first(), posting.weight * p.second(), Double::sum);
+            });
+        });
+        final List<Pair<Portfolio, Double>> res = new ArrayList();
+        exposures.forEach((portfolio, weight) -> {
+            res.add(new Pair(portfolio, weight));
+        });
+        Collections.sort(res, (a, b) -> Double.compare(b.second(), a.second()));
+        return res;
+    }
+
+    /**
+     * The n largest single company exposures over all indexed portfolios.
+     */
+    public static synchronized List<Exposure> getTop(final int n) {
+        final PriorityQueue<Exposure> queue = new PriorityQueue<Exposure>(
+                Math.max(1, n), (Exposure a, Exposure b) -> Double.compare(a.weight, b.weight)
+        );
+        POSTINGS.forEach((id, postings) -> {
+            final Map<Portfolio, Double> exposures = new HashMap();
+            postings.forEach(posting -> {
+                FUND_PORTFOLIOS.getOrDefault(posting.fund, Collections.emptyList()).forEach(p -> {
+                    exposures.merge(p.first(), posting.weight * p.second(), Double::sum);
+                });
+            });
+            exposures.forEach((portfolio, weight) -> {
+                if (queue.size() < n) {
+                    queue.add(new Exposure(portfolio, HoldingNames.getName(id), weight));
+                }
+                else if (n > 0 && weight > queue.peek().weight) {
+                    queue.poll();
+                    queue.add(new Exposure(portfolio, HoldingNames.getName(id), weight));
+                }
+            });
+        });
+        final List<Exposure> res = new ArrayList(queue);
+        Collections.sort(res, (a, b) -> Double.compare(b.weight, a.weight));
+        return res;
+    }
+
+    private static void remove(final String fundName) {
+        final List<Integer> ids = FUND_KEYS.remove(fundName);
+        if (ids == null) {
+            return;
+        }
+        ids.forEach(id -> {
+            final List<Posting> postings = POSTINGS.get(id);
+            postings.removeIf(posting -> posting.fund.equals(fundName));
+            if (postings.isEmpty()) {
+                POSTINGS.remove(id);
+            }
+        });
+    }
+
+    private static class Posting {
+
+        private final String fund;
+        private final double weight;
+
+        private Posting(final String fund, final double weight) {
+            this.fund = fund;
+            this.weight = weight;
+        }
+
+    }
+
+    public static class Exposure {
+
+        public final Portfolio portfolio;
+        public final String company;
+        public final double weight;
+
+        private Exposure(final Portfolio portfolio, final String company, final double weight) {
+            this.portfolio = portfolio;
+            this.company = company;
+            this.weight = weight;
+        }
+
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.github.andreasarvidsson.funds;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.andreasarvidsson.funds.util.NameIndex;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global symbol table for holding names. Variants of the same company, like
+ * "Apple Inc" and "Apple Inc." or "Atlas Copco A" and "Atlas Copco B", are
+ * canonicalized to the same integer id. Names that canonicalization can't
+ * tell apart, like "Facebook Inc" and "Meta Platforms Inc", are mapped by
+ * aliases.json, e.g. {"Facebook Inc": "Meta Platforms Inc"}. Raw names are
+ * interned so every fund shares the same string instances.
+ *
+ * @author Andreas Arvidsson
+ */
+public abstract class HoldingNames {
+
+    private static final String ALIASES_FILE = "aliases.json";
+    //Trailing tokens that don't identify the company: legal forms, share classes and listing types.
+    private static final Set<String> SUFFIXES = new HashSet(Arrays.asList(
+            "inc", "incorporated", "corp", "corporation", "co", "company", "cos",
+            "ltd", "limited", "plc", "llc", "lp", "ab", "publ", "ag", "sa", "se",
+            "nv", "asa", "oyj", "as", "spa", "holding", "holdings", "group",
+            "a", "b", "c", "d", "r", "class", "ser", "series", "pref", "ord",
+            "adr", "gdr", "reg", "registered", "shs", "sdb", "npv"
+    ));
+    private static final Map<String, Integer> RAW_IDS = new ConcurrentHashMap();
+    private static final Map<String, String> RAW_STRINGS = new ConcurrentHashMap();
+    private static final Map<String, Integer> KEY_IDS = new HashMap();
+    private static final Map<String, String> ALIASES = new ConcurrentHashMap();
+    private static final List<String> NAMES = new ArrayList();
+
+    static {
+        loadAliases(new File(ALIASES_FILE));
+    }
+
+    /**
+     * Canonical id for a raw holding name. Cached per raw string.
+     */
+    public static int getId(final String rawName) {
+        final Integer id = RAW_IDS.get(rawName);
+        if (id != null) {
+            return id;
+        }
+        return register(rawName);
+    }
+
+    /**
+     * Id of an already registered name, or -1. Unlike getId it never
+     * registers the name, so it's used for queries.
+     */
+    public static int findId(final String rawName) {
+        final Integer id = RAW_IDS.get(rawName);
+        if (id != null) {
+            return id;
+        }
+        synchronized (HoldingNames.class) {
+            return KEY_IDS.getOrDefault(canonicalize(rawName), -1);
+        }
+    }
+
+    /**
+     * Display name for an id, the first variant seen.
+     */
+    public static synchronized String getName(final int id) {
+        return NAMES.get(id);
+    }
+
+    public static synchronized int size() {
+        return NAMES.size();
+    }
+
+    /**
+     * Shared instance of an equal string.
+     */
+    public static String intern(final String value) {
+        if (value == null) {
+            return null;
+        }
+        final String res = RAW_STRINGS.putIfAbsent(value, value);
+        return res != null ? res : value;
+    }
+
+    public static String canonicalize(final String rawName) {
+        final String alias = ALIASES.get(rawName.trim().toUpperCase());
+        final String[] tokens = NameIndex.fold(alias != null ? alias : rawName).split(" ");
+        int end = tokens.length;
+        while (end > 1 && SUFFIXES.contains(tokens[end - 1])) {
+            --end;
+        }
+        return String.join(" ", Arrays.copyOf(tokens, end));
+    }
+
+    //Ids are cached by funds, portfolios and HoldingIndex, so aliases are
+    //loaded before the first id is handed out.
+    private static void loadAliases(final File file) {
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            final Map<String, String> aliases = new ObjectMapper().readValue(
+                    file, new TypeReference<Map<String, String>>() {
+            });
+            aliases.forEach((alias, name) -> {
+                ALIASES.put(alias.trim().toUpperCase(), name);
+            });
+        }
+        catch (final IOException e) {
+            System.err.printf("Can't load aliases from %s: %s\n", file, e);
+        }
+    }
+
+    private static synchronized int register(final String rawName) {
+        final String key = canonicalize(rawName);
+        Integer id = KEY_IDS.get(key);
+        if (id == null) {
+            id = NAMES.size();
+            final String alias = ALIASES.get(rawName.trim().toUpperCase());
+            NAMES.add(intern(alias != null ? alias : rawName));
+            KEY_IDS.put(key, id);
+        }
+        RAW_IDS.put(intern(rawName), id);
+        return id;
+    }
+
+}
@@ -0,0 +1,192 @@
+package com.github.andreasarvidsson.funds;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.github.andreasarvidsson.funds.AvanzaFund.ChartData;
+import com.github.andreasarvidsson.funds.util.FileCache;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Expands holdings that are Avanza funds themselves into the country, sector
+ * and holding exposures of the fund holding them.
+ *
+ * @author Andreas Arvidsson
+ */
+public abstract class LookThrough {
+
+    private static final String PREFIX = "lookthrough_";
+    private static final int NUM_THREADS = 8;
+    private static final Map<String, Exposure> EXPOSURES = new ConcurrentHashMap();
+    private static final Map<String, ExposureCube> CUBES = new ConcurrentHashMap();
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(NUM_THREADS, r -> {
+        final Thread thread = new Thread(r, "look-through");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static Exposure get(final AvanzaFund fund) throws IOException {
+        return get(fund, new HashSet());
+    }
+
+    public static ExposureCube getCube(final AvanzaFund fund) throws IOException {
+        ExposureCube cube = CUBES.get(fund.name);
+        if (cube == null) {
+            final Exposure exposure = get(fund);
+            cube = ExposureCube.estimate(exposure.countries, exposure.sectors);
+            CUBES.put(fund.name, cube);
+        }
+        return cube;
+    }
+
+    /**
+     * Forget the exposure of a fund whose data has been refreshed, and of
+     * every fund that holds it directly or through other funds. Both the
+     * exposures in memory and the ones in the file cache are checked.
+     */
+    public static void remove(final String fundName) {
+        //Nested fund -> funds holding it.
+        final Map<String, Set<String>> parents = new HashMap();
+        EXPOSURES.forEach((name, exposure) -> {
+            addParents(parents, name, exposure);
+        });
+        for (final String fileName : FileCache.list(PREFIX)) {
+            try {
+                addParents(parents, fileName.substring(PREFIX.length()), FileCache.load(fileName, Exposure.class));
+            }
+            catch (final IOException e) {
+                //Unreadable files are deleted below if they depend on the fund.
+                FileCache.delete(fileName);
+            }
+        }
+        final Set<String> removed = new HashSet();
+        final Deque<String> queue = new ArrayDeque();
+        queue.add(fundName);
+        while (!queue.isEmpty()) {
+            final String name = queue.poll();
+            if (!removed.add(name)) {
+                continue;
+            }
+            EXPOSURES.remove(name);
+            CUBES.remove(name);
+            FileCache.delete(PREFIX + name);
+            queue.addAll(parents.getOrDefault(name, Collections.emptySet()));
+        }
+    }
+
+    private static void addParents(final Map<String, Set<String>> parents, final String name, final Exposure exposure) {
+        if (exposure != null) {
+            exposure.funds.forEach(nested -> {
+                parents.computeIfAbsent(nested, k -> new HashSet()).add(name);
+            });
+        }
+    }
+
+    private static Exposure get(final AvanzaFund fund, final Set<String> path) throws IOException {
+        if (EXPOSURES.containsKey(fund.name)) {
+            return EXPOSURES.get(fund.name);
+        }
+        final String fileName = PREFIX + fund.name;
+        Exposure exposure = FileCache.load(fileName, Exposure.class);
+        if (exposure == null) {
+            path.add(fund.name);
+            exposure = expand(fund, path);
+            path.remove(fund.name);
+            //A cut off cycle depends on where the expansion started, so it's only valid for this path.
+            if (!exposure.cycles.isEmpty()) {
+                return exposure;
+            }
+            FileCache.store(fileName, exposure);
+        }
+        EXPOSURES.put(fund.name, exposure);
+        return exposure;
+    }
+
+    private static Exposure expand(final AvanzaFund fund, final Set<String> path) throws IOException {
+        //Resolve all holdings concurrently. Most of them are companies and resolves to null.
+        final List<Future<AvanzaFund>> futures = new ArrayList();
+        for (final ChartData holding : fund.holdingChartData) {
+            futures.add(EXECUTOR.submit(() -> Avanza.findFund(holding.name)));
+        }
+
+        final Exposure res = new Exposure();
+        double nestedShare = 0;
+        for (int i = 0; i < futures.size(); ++i) {
+            final ChartData holding = fund.holdingChartData.get(i);
+            final AvanzaFund nested = await(futures.get(i));
+            if (nested == null) {
+                res.add(res.holdings, holding.name, holding.y);
+                continue;
+            }
+            //Cycles are broken by keeping the holding opaque.
+            if (path.contains(nested.name)) {
+                res.add(res.holdings, holding.name, holding.y);
+                res.cycles.add(nested.name);
+                continue;
+            }
+            //Nested funds are expanded one at a time on this thread, only the lookups above are concurrent.
+            final Exposure nestedExposure = get(nested, path);
+            res.cycles.addAll(nestedExposure.cycles);
+            res.funds.add(nested.name);
+            final double share = holding.y * 0.01;
+            nestedExposure.countries.forEach((k, v) -> res.add(res.countries, k, v * share));
+            nestedExposure.sectors.forEach((k, v) -> res.add(res.sectors, k, v * share));
+            nestedExposure.holdings.forEach((k, v) -> res.add(res.holdings, k, v * share));
+            nestedShare += holding.y;
+        }
+
+        //Avanza doesn't tell which country or sector a fund holding was
+        //attributed to, so the fund's own figures are scaled down by the nested share.
+        final double directShare = Math.max(0, 100 - nestedShare) * 0.01;
+        fund.countryChartData.forEach(data -> res.add(res.countries, data.name, data.y * directShare));
+        fund.sectorChartData.forEach(data -> res.add(res.sectors, data.name, data.y * directShare));
+        return res;
+    }
+
+    private static AvanzaFund await(final Future<AvanzaFund> future) throws IOException {
+        try {
+            return future.get();
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Exposure {
+
+        public final Map<String, Double> countries = new LinkedHashMap();
+        public final Map<String, Double> sectors = new LinkedHashMap();
+        public final Map<String, Double> holdings = new LinkedHashMap();
+        //Nested funds that were expanded.
+        public final List<String> funds = new ArrayList();
+        //Funds on the path that were kept opaque to break a cycle. Never stored.
+        private final Set<String> cycles = new HashSet();
+
+        private void add(final Map<String, Double> map, final String key, final double value) {
+            map.put(key, map.getOrDefault(key, 0.0) + value);
+        }
+
+    }
+
+}
@@ -0,0 +1,187 @@
+package com.github.andreasarvidsson.funds;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Simulates the value of a portfolio over a number of years. Funds follow
+ * correlated geometric brownian motions with monthly rebalancing and fees
+ * deducted. Results are deterministic for a given seed.
+ *
+ * @author Andreas Arvidsson
+ */
+public class MonteCarlo {
+
+    private static final int STEPS_PER_YEAR = 12;
+    private static final int PATHS_PER_TASK = 16384;
+    private static final double DEFAULT_CORRELATION = 0.8;
+
+    public final String name;
+    public final int years, paths;
+    public final long seed;
+    public final double correlation;
+    //Sorted value multipliers and max drawdowns, one per path.
+    private final double[] outcomes, drawdowns;
+    private final double[] weights, drifts, volatilities;
+
+    public MonteCarlo(
+            final Portfolio portfolio,
+            final int years,
+            final int paths,
+            final long seed) {
+        this(portfolio, years, paths, seed, DEFAULT_CORRELATION);
+    }
+
+    public MonteCarlo(
+            final Portfolio portfolio,
+            final int years,
+            final int paths,
+            final long seed,
+            final double correlation) {
+        if (years <= 0) {
+            throw new IllegalArgumentException(String.format("Expected a positive number of years, got %d", years));
+        }
+        if (paths <= 0) {
+            throw new IllegalArgumentException(String.format("Expected a positive number of paths, got %d", paths));
+        }
+        //Also rejects NaN. Negative correlations would need a full correlation matrix.
+        if (!(correlation >= 0 && correlation <= 1)) {
+            throw new IllegalArgumentException(String.format("Expected a correlation in [0, 1], got %f", correlation));
+        }
+        this.name = portfolio.name;
+        this.years = years;
+        this.paths = paths;
+        this.seed = seed;
+        this.correlation = correlation;
+        final int size = portfolio.funds.size();
+        weights = new double[size];
+        drifts = new double[size];
+        volatilities = new double[size];
+        for (int i = 0; i < size; ++i) {
+            final FundData fd = portfolio.funds.get(i);
+            final Double annualReturn = fd.avanza.getAnnualReturn();
+            //Developments are net of the product fee. Swap it for the actual fee.
+            final double netReturn = (annualReturn != null ? annualReturn : 0)
+                    + fd.avanza.productFee - fd.getFee();
+            final double volatility = fd.avanza.getVolatility() * 0.01;
+            weights[i] = fd.percentageNormalized;
+            volatilities[i] = volatility;
+            drifts[i] = Math.log(1 + netReturn * 0.01) - 0.5 * volatility * volatility;
+        }
+        outcomes = new double[paths];
+        drawdowns = new double[paths];
+        simulate();
+    }
+
+    public double percentile(final double percentile) {
+        return get(outcomes, percentile);
+    }
+
+    /**
+     * Annualized return in percent at the given percentile.
+     */
+    public double annualReturn(final double percentile) {
+        return (Math.pow(percentile(percentile), 1.0 / years) - 1) * 100;
+    }
+
+    public double drawdownPercentile(final double percentile) {
+        return get(drawdowns, percentile);
+    }
+
+    /**
+     * Probability in percent that the max drawdown exceeds the threshold.
+     */
+    public double drawdownProbability(final double threshold) {
+        int index = Arrays.binarySearch(drawdowns, threshold);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        while (index < paths && drawdowns[index] <= threshold) {
+            ++index;
+        }
+        return 100.0 * (paths - index) / paths;
+    }
+
+    private double get(final double[] values, final double percentile) {
+        final int index = (int) Math.round(percentile * 0.01 * (paths - 1));
+        return values[Math.max(0, Math.min(paths - 1, index))];
+    }
+
+    private void simulate() {
+        //Split random streams up front so the result doesn't depend on thread scheduling.
+        final int numTasks = (paths + PATHS_PER_TASK - 1) / PATHS_PER_TASK;
+        final SplittableRandom root = new SplittableRandom(seed);
+        final SplittableRandom[] randoms = new SplittableRandom[numTasks];
+        for (int i = 0; i < numTasks; ++i) {
+            randoms[i] = root.split();
+        }
+        IntStream.range(0, numTasks).parallel().forEach(task -> {
+            final int from = task * PATHS_PER_TASK;
+            final int to = Math.min(paths, from + PATHS_PER_TASK);
+            simulate(new Gaussian(randoms[task]), from, to);
+        });
+        Arrays.parallelSort(outcomes);
+        Arrays.parallelSort(drawdowns);
+    }
+
+    private void simulate(final Gaussian gaussian, final int from, final int to) {
+        final int steps = years * STEPS_PER_YEAR;
+        final double dt = 1.0 / STEPS_PER_YEAR;
+        final double sqrtDt = Math.sqrt(dt);
+        final double common = Math.sqrt(correlation);
+        final double specific = Math.sqrt(1 - correlation);
+        final int size = weights.length;
+        for (int path = from; path < to; ++path) {
+            double value = 1, peak = 1, drawdown = 0;
+            for (int step = 0; step < steps; ++step) {
+                final double market = gaussian.next();
+                double stepReturn = 0;
+                for (int i = 0; i < size; ++i) {
+                    final double z = common * market + specific * gaussian.next();
+                    stepReturn += weights[i] * (Math.exp(drifts[i] * dt + volatilities[i] * sqrtDt * z) - 1);
+                }
+                value *= 1 + stepReturn;
+                if (value > peak) {
+                    peak = value;
+                }
+                else if (1 - value / peak > drawdown) {
+                    drawdown = 1 - value / peak;
+                }
+            }
+            outcomes[path] = value;
+            drawdowns[path] = drawdown * 100;
+        }
+    }
+
+    //Marsaglia polar method. Keeps the second value of each pair.
+    private static class Gaussian {
+
+        private final SplittableRandom random;
+        private double spare;
+        private boolean hasSpare;
+
+        private Gaussian(final SplittableRandom random) {
+            this.random = random;
+        }
+
+        private double next() {
+            if (hasSpare) {
+                hasSpare = false;
+                return spare;
+            }
+            double u, v, s;
+            do {
+                u = 2 * random.nextDouble() - 1;
+                v = 2 * random.nextDouble() - 1;
+                s = u * u + v * v;
+            } while (s >= 1 || s == 0);
+            final double m = Math.sqrt(-2 * Math.log(s) / s);
+            spare = v * m;
+            hasSpare = true;
+            return u * m;
+        }
+
+    }
+
+}
@@ -0,0 +1,202 @@
+package com.github.andreasarvidsson.funds;
+
+import com.github.andreasarvidsson.funds.util.FileCache;
+import com.github.andreasarvidsson.funds.util.HTTP;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+/**
+ * Company sizes per fund scraped from the Morningstar portfolio pages. At
+ * most NUM_THREADS pages are fetched at the same time and parsed results
+ * are cached. Failures are reported and the fund is left without sizes. A
+ * failed fund is stored in the file cache like one without sizes, so it
+ * isn't fetched again until the file expires, even after a restart.
+ *
+ * Fetching is opt-in. Report and Batch prefetch the funds they use,
+ * portfolios only read what is already loaded.
+ *
+ * @author Andreas Arvidsson
+ */
+public abstract class Morningstar {
+
+    private static final String PREFIX = "morningstar_";
+    private static final int NUM_THREADS = 4;
+    private static final Pattern ID_PATTERN = Pattern.compile("\"i\"\\s*:\\s*\"([A-Za-z0-9]+)\"");
+    private static final Map<String, MorningstarFund> FUNDS = new ConcurrentHashMap();
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(NUM_THREADS, r -> {
+        final Thread thread = new Thread(r, "morningstar");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static volatile String base = System.getProperty("morningstar.url", "https://www.morningstar.se");
+
+    /**
+     * E.g. a local server with saved pages.
+     */
+    public static void setBaseUrl(final String url) {
+        base = url;
+    }
+
+    /**
+     * Sizes for the funds, fetched concurrently. Funds that can't be found
+     * or parsed are missing in the result.
+     */
+    public static Map<String, MorningstarFund> get(final List<AvanzaFund> funds) {
+        final List<Future<MorningstarFund>> futures = new ArrayList();
+        for (final AvanzaFund fund : funds) {
+            //Funds already in memory don't need a thread.
+            final MorningstarFund loaded = FUNDS.get(fund.name);
+            if (loaded != null) {
+                futures.add(CompletableFuture.completedFuture(loaded.hasCompanySizes() ? loaded : null));
+            }
+            else {
+                futures.add(EXECUTOR.submit(() -> get(fund)));
+            }
+        }
+        final Map<String, MorningstarFund> res = new HashMap();
+        for (int i = 0; i < futures.size(); ++i) {
+            final AvanzaFund fund = funds.get(i);
+            try {
+                final MorningstarFund morningstar = futures.get(i).get();
+                if (morningstar != null) {
+                    res.put(fund.name, morningstar);
+                }
+            }
+            catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return res;
+            }
+            catch (final ExecutionException ex) {
+                System.err.printf("Morningstar failed for %s: %s\n", fund.name, ex.getCause());
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Sizes for the fund if they have been fetched, never fetches.
+     */
+    public static MorningstarFund getLoaded(final AvanzaFund fund) {
+        final MorningstarFund res = FUNDS.get(fund.name);
+        return res != null && res.hasCompanySizes() ? res : null;
+    }
+
+    public static MorningstarFund get(final AvanzaFund fund) throws IOException {
+        MorningstarFund res = FUNDS.get(fund.name);
+        if (res == null) {
+            final String fileName = PREFIX + fund.name;
+            res = FileCache.load(fileName, MorningstarFund.class);
+            if (res == null) {
+                try {
+                    res = fetch(fund);
+                }
+                catch (final IOException ex) {
+                    final MorningstarFund failed = new MorningstarFund();
+                    failed.name = fund.name;
+                    FUNDS.put(fund.name, failed);
+                    FileCache.store(fileName, failed);
+                    throw ex;
+                }
+                FileCache.store(fileName, res);
+            }
+            FUNDS.put(fund.name, res);
+        }
+        return res.hasCompanySizes() ? res : null;
+    }
+
+    private static MorningstarFund fetch(final AvanzaFund fund) throws IOException {
+        final MorningstarFund res = new MorningstarFund();
+        res.name = fund.name;
+        res.id = findId(fund.isin != null ? fund.isin : fund.name);
+        if (res.id == null && fund.isin != null) {
+            res.id = findId(fund.name);
+        }
+        if (res.id != null) {
+            //Parsed from a string since saved pages may be served without a html content type.
+            parse(res, Jsoup.parse(HTTP.getString(String.format(
+                    "%s/se/funds/snapshot/snapshot.aspx?id=%s&tab=3", base, res.id
+            ))));
+        }
+        return res;
+    }
+
+    private static String findId(final String query) throws IOException {
+        final String text = HTTP.getString(String.format(
+                "%s/se/util/SecuritySearch.ashx?source=nav&moduleId=6&q=%s", base, encode(query)
+        ));
+        final Matcher matcher = ID_PATTERN.matcher(text);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    //Morningstar splits into giant, large, mid, small and micro companies.
+    private static void parse(final MorningstarFund res, final Document document) {
+        double large = 0, middle = 0, small = 0;
+        boolean found = false;
+        for (final Element row : document.select("tr")) {
+            final List<Element> cells = row.select("td, th");
+            if (cells.size() < 2) {
+                continue;
+            }
+            //First word only, so e.g. Storbritannien in the country table doesn't match.
+            final String label = cells.get(0).text().trim().toLowerCase().split("\\s+")[0];
+            final Double value = parseDouble(cells.get(1).text());
+            if (value == null) {
+                continue;
+            }
+            if (label.equals("jätte") || label.equals("stora") || label.equals("stor")) {
+                large += value;
+            }
+            else if (label.equals("medel") || label.equals("medelstora")) {
+                middle += value;
+            }
+            else if (label.equals("små") || label.equals("mikro")) {
+                small += value;
+            }
+            else {
+                continue;
+            }
+            found = true;
+        }
+        if (found) {
+            res.largeCompanies = large;
+            res.middleCompanies = middle;
+            res.smallCompanies = small;
+        }
+    }
+
+    private static Double parseDouble(final String text) {
+        final String value = text.replace('\u00a0', ' ').replace("%", "").replace(',', '.').trim();
+        try {
+            return Double.parseDouble(value);
+        }
+        catch (final NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private static String encode(final String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        }
+        catch (final UnsupportedEncodingException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+}
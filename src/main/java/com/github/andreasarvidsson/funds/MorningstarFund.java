@@ -0,0 +1,23 @@
+package com.github.andreasarvidsson.funds;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Company size split in percent scraped from Morningstar. Id is null when
+ * the fund wasn't found, which is cached as well.
+ *
+ * @author Andreas Arvidsson
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class MorningstarFund {
+
+    public String name, id;
+    public Double largeCompanies, middleCompanies, smallCompanies;
+
+    @JsonIgnore
+    public boolean hasCompanySizes() {
+        return largeCompanies != null && middleCompanies != null && smallCompanies != null;
+    }
+
+}
@@ -1,5 +1,9 @@
 package com.github.andreasarvidsson.funds;
 
+import com.github.andreasarvidsson.funds.Country.Market;
+import com.github.andreasarvidsson.funds.LookThrough.Exposure;
+import com.github.andreasarvidsson.funds.util.Fingerprint;
+import com.github.andreasarvidsson.funds.util.IdSums;
 import com.github.andreasarvidsson.funds.util.Sum;
 import com.github.andreasarvidsson.funds.util.Values;
 import java.io.IOException;
@@ -13,6 +17,8 @@ import java.util.List;
  */
 public class Portfolio {
 
+    private static final ThreadLocal<IdSums> HOLDING_SUMS = ThreadLocal.withInitial(IdSums::new);
+
     public final List<FundData> funds = new ArrayList();
     public final Values companiesSize = new Values();
     public final Values countries = new Values();
@@ -22,34 +28,67 @@ public class Portfolio {
     public final Sum sum = new Sum();
     public final Sum developments = new Sum();
     public final String name;
+    public final boolean lookThrough;
+    public final ExposureCube exposureCube;
     public double percentageSum, avgFee, risk, nonDevelopedMarkets;
+    //Look-through exposure per fund, which depends on the nested funds too.
+    private final List<Exposure> exposures = new ArrayList();
+    private String hash;
 
     public Portfolio(
             final String name,
             final SelectedFund... selectedFunds) throws IOException {
-        this(name, Arrays.asList(selectedFunds));
+        this(name, false, Arrays.asList(selectedFunds));
     }
 
     public Portfolio(
             final String name,
             final List<SelectedFund> selectedFunds) throws IOException {
+        this(name, false, selectedFunds);
+    }
+
+    public Portfolio(
+            final String name,
+            final boolean lookThrough,
+            final SelectedFund... selectedFunds) throws IOException {
+        this(name, lookThrough, Arrays.asList(selectedFunds));
+    }
+
+    public Portfolio(
+            final String name,
+            final boolean lookThrough,
+            final List<SelectedFund> selectedFunds) throws IOException {
         this.name = name;
+        this.lookThrough = lookThrough;
         for (final SelectedFund sf : selectedFunds) {
             percentageSum += sf.percentage;
         }
+        final List<AvanzaFund> avanzaFunds = new ArrayList();
         for (final SelectedFund sd : selectedFunds) {
+            avanzaFunds.add(Avanza.getFund(sd.name));
+        }
+        for (int i = 0; i < selectedFunds.size(); ++i) {
+            final SelectedFund sd = selectedFunds.get(i);
+            final AvanzaFund avanza = avanzaFunds.get(i);
             funds.add(new FundData(
                     sd.percentage,
                     sd.percentage / percentageSum,
-                    Avanza.getFund(sd.name),
+                    avanza,
+                    Morningstar.getLoaded(avanza),
                     sd.fee
             ));
         }
         percentageSum *= 100;
+        //Holdings are summed by canonical id so name variants end up on the same row.
+        final IdSums holdingSums = HOLDING_SUMS.get();
+        holdingSums.clear();
+        final List<ExposureCube> cubes = new ArrayList();
+        final double[] cubeWeights = new double[funds.size()];
         for (final FundData fd : funds) {
+            cubeWeights[cubes.size()] = fd.percentageNormalized;
+            cubes.add(lookThrough ? LookThrough.getCube(fd.avanza) : fd.avanza.exposureCube);
             avgFee += fd.getFee() * fd.percentageNormalized;
             risk += fd.avanza.risk * fd.percentageNormalized;
-            nonDevelopedMarkets += fd.avanza.getNonDevelopedMarkets() * fd.percentageNormalized;
             if (fd.avanza.sharpeRatio != null) {
                 sum.add(Headers.SHARPE_RATIO, fd.avanza.sharpeRatio, fd.percentageNormalized);
             }
@@ -61,34 +100,45 @@ public class Portfolio {
                     developments.add(key, fd.avanza.getDevelopment(key, 0.0), fd.percentageNormalized);
                 }
             });
-            fd.avanza.countryChartData.forEach(data -> {
-                countries.add(data.name, data.y * fd.percentageNormalized);
-            });
-            fd.avanza.regionChartData.forEach(data -> {
-                regions.add(data.name, data.y * fd.percentageNormalized);
-            });
-            fd.avanza.sectorChartData.forEach(data -> {
-                sectors.add(data.name, data.y * fd.percentageNormalized);
-            });
-            fd.avanza.holdingChartData.forEach(data -> {
-                holdings.add(data.name, data.y * fd.percentageNormalized);
-            });
-//            if (fd.morningstar != null) {
-//                companiesSize.add("Stora bolag", fd.morningstar.largeCompanies * fd.percentageNormalized);
-//                companiesSize.add("Medelstora bolag", fd.morningstar.middleCompanies * fd.percentageNormalized);
-//                companiesSize.add("Små bolag", fd.morningstar.smallCompanies * fd.percentageNormalized);
-//                final double swePercentage = fd.avanza.getRegion(Regions.SWEDEN) / 100;
-//                companiesSize.add("Stora svenska bolag", fd.morningstar.largeCompanies * fd.percentageNormalized * swePercentage);
-//                companiesSize.add("Medelstora svenska bolag", fd.morningstar.middleCompanies * fd.percentageNormalized * swePercentage);
-//                companiesSize.add("Små svenska bolag", fd.morningstar.smallCompanies * fd.percentageNormalized * swePercentage);
-//            }
+            if (lookThrough) {
+                addLookThrough(fd, holdingSums);
+            }
+            else {
+                nonDevelopedMarkets += fd.avanza.getNonDevelopedMarkets() * fd.percentageNormalized;
+                fd.avanza.countryChartData.forEach(data -> {
+                    countries.add(data.name, data.y * fd.percentageNormalized);
+                });
+                fd.avanza.regionChartData.forEach(data -> {
+                    regions.add(data.name, data.y * fd.percentageNormalized);
+                });
+                fd.avanza.sectorChartData.forEach(data -> {
+                    sectors.add(data.name, data.y * fd.percentageNormalized);
+                });
+                fd.avanza.holdingChartData.forEach(data -> {
+                    holdingSums.add(data.id, data.y * fd.percentageNormalized);
+                });
+            }
+            if (fd.morningstar != null) {
+                companiesSize.add("Stora bolag", fd.morningstar.largeCompanies * fd.percentageNormalized);
+                companiesSize.add("Medelstora bolag", fd.morningstar.middleCompanies * fd.percentageNormalized);
+                companiesSize.add("Små bolag", fd.morningstar.smallCompanies * fd.percentageNormalized);
+                final double swePercentage = fd.avanza.getCountry(Country.SWEDEN, 0.0) / 100;
+                companiesSize.add("Stora svenska bolag", fd.morningstar.largeCompanies * fd.percentageNormalized * swePercentage);
+                companiesSize.add("Medelstora svenska bolag", fd.morningstar.middleCompanies * fd.percentageNormalized * swePercentage);
+                companiesSize.add("Små svenska bolag", fd.morningstar.smallCompanies * fd.percentageNormalized * swePercentage);
+            }
         }
-//        if (!companiesSize.isEmpty() && regions.has(Region.SWEDEN.name)) {
-//            final double sweSum = regions.get(Region.SWEDEN.name) * 0.01;
-//            companiesSize.normalize("Stora svenska bolag", sweSum);
-//            companiesSize.normalize("Medelstora svenska bolag", sweSum);
-//            companiesSize.normalize("Små svenska bolag", sweSum);
-//        }
+        if (!companiesSize.isEmpty() && countries.has(Country.SWEDEN.name)) {
+            final double sweSum = countries.get(Country.SWEDEN.name, 0.0) * 0.01;
+            companiesSize.normalize("Stora svenska bolag", sweSum);
+            companiesSize.normalize("Medelstora svenska bolag", sweSum);
+            companiesSize.normalize("Små svenska bolag", sweSum);
+        }
+        for (int i = 0; i < holdingSums.size(); ++i) {
+            holdings.add(HoldingNames.getName(holdingSums.getId(i)), holdingSums.getSum(i));
+        }
+        holdingSums.clear();
+        exposureCube = ExposureCube.sum(cubes, cubeWeights);
         countries.compile(true);
         regions.compile(true);
         sectors.compile(true);
@@ -98,4 +148,81 @@ public class Portfolio {
         developments.normalize();
     }
 
+    /**
+     * Use the covariance between funds for the standard deviation instead of
+     * the weighted average, which ignores diversification.
+     */
+    public void setCovariance(final Covariance covariance) {
+        sum.set(Headers.STANDARD_DEVIATION, covariance.volatility(this));
+        hash = null;
+    }
+
+    /**
+     * Same as setCovariance for portfolios with several funds. A single
+     * fund keeps its own standard deviation.
+     */
+    public void applyCovariance(final Covariance covariance) {
+        if (funds.size() > 1) {
+            setCovariance(covariance);
+        }
+    }
+
+    /**
+     * Covariance from the price histories of the source. Keeps the weighted
+     * average when there isn't enough price history.
+     */
+    public void applyCovariance(final FundDataSource source) {
+        if (funds.size() < 2) {
+            return;
+        }
+        try {
+            setCovariance(Covariance.get(source, this));
+        }
+        catch (final IOException | RuntimeException e) {
+            System.err.printf("No covariance for %s: %s\n", name, e);
+        }
+    }
+
+    /**
+     * Hash of the fund snapshots, weights and fees the portfolio is computed
+     * from. With look-through the expanded exposures, and so the nested
+     * funds, are included.
+     */
+    public String getHash() {
+        if (hash == null) {
+            final Fingerprint fingerprint = new Fingerprint()
+                    .add(name)
+                    .add(lookThrough)
+                    .add(sum.get(Headers.STANDARD_DEVIATION, null));
+            funds.forEach(fd -> {
+                fingerprint.add(fd.avanza.getHash())
+                        .addJson(fd.morningstar)
+                        .add(fd.percentage)
+                        .add(fd.getFee());
+            });
+            exposures.forEach(fingerprint::addJson);
+            hash = fingerprint.toString();
+        }
+        return hash;
+    }
+
+    private void addLookThrough(final FundData fd, final IdSums holdingSums) throws IOException {
+        final Exposure exposure = LookThrough.get(fd.avanza);
+        exposures.add(exposure);
+        exposure.countries.forEach((key, value) -> {
+            final Country country = Country.fromString(key);
+            countries.add(key, value * fd.percentageNormalized);
+            regions.add(country.region.name, value * fd.percentageNormalized);
+            if (country.market != Market.DEVELOPED) {
+                nonDevelopedMarkets += value * fd.percentageNormalized;
+            }
+        });
+        exposure.sectors.forEach((key, value) -> {
+            sectors.add(key, value * fd.percentageNormalized);
+        });
+        exposure.holdings.forEach((key, value) -> {
+            holdingSums.add(HoldingNames.getId(key), value * fd.percentageNormalized);
+        });
+    }
+
 }
@@ -0,0 +1,35 @@
+package com.github.andreasarvidsson.funds;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import java.util.Arrays;
+
+/**
+ * Daily price index for a fund. Dates are epoch millis in ascending order.
+ *
+ * @author Andreas Arvidsson
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PriceHistory {
+
+    public String name;
+    public long[] dates;
+    public double[] values;
+
+    public PriceHistory() {
+    }
+
+    public PriceHistory(final String name, final long[] dates, final double[] values) {
+        this.name = name;
+        this.dates = dates;
+        this.values = values;
+    }
+
+    public int size() {
+        return dates.length;
+    }
+
+    public int indexOf(final long date) {
+        return Arrays.binarySearch(dates, date);
+    }
+
+}
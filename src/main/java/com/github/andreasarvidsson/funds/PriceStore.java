@@ -0,0 +1,181 @@
+package com.github.andreasarvidsson.funds;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Price series for many funds on one common date axis, stored in a compact
+ * binary file and memory mapped when loaded. Gaps are forward filled and
+ * dates before a series starts are NaN.
+ *
+ * @author Andreas Arvidsson
+ */
+public class PriceStore {
+
+    private static final int MAGIC = 0x46505331; //FPS1
+
+    public final List<String> names;
+    public final long[] dates;
+    private final DoubleBuffer values;
+    private final Map<String, Integer> indexes = new HashMap();
+
+    private PriceStore(final List<String> names, final long[] dates, final DoubleBuffer values) {
+        this.names = names;
+        this.dates = dates;
+        this.values = values;
+        for (int i = 0; i < names.size(); ++i) {
+            indexes.put(names.get(i), i);
+        }
+    }
+
+    /**
+     * Writes the price histories of the funds from the source and loads
+     * them back.
+     */
+    public static PriceStore write(
+            final File file,
+            final FundDataSource source,
+            final Collection<AvanzaFund> funds) throws IOException {
+        final List<PriceHistory> histories = new ArrayList();
+        for (final AvanzaFund fund : funds) {
+            histories.add(source.getPriceHistory(fund));
+        }
+        write(file, histories);
+        return load(file);
+    }
+
+    public static void write(final File file, final List<PriceHistory> histories) throws IOException {
+        final TreeSet<Long> dateSet = new TreeSet();
+        histories.forEach(history -> {
+            for (final long date : history.dates) {
+                dateSet.add(date);
+            }
+        });
+        final long[] dates = new long[dateSet.size()];
+        int index = 0;
+        for (final long date : dateSet) {
+            dates[index++] = date;
+        }
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(histories.size());
+            out.writeInt(dates.length);
+            for (final long date : dates) {
+                out.writeLong(date);
+            }
+            for (final PriceHistory history : histories) {
+                int j = 0;
+                double value = Double.NaN;
+                for (final long date : dates) {
+                    while (j < history.dates.length && history.dates[j] <= date) {
+                        value = history.values[j++];
+                    }
+                    out.writeDouble(value);
+                }
+            }
+            //Names last so the fixed size part can be mapped at a known offset.
+            for (final PriceHistory history : histories) {
+                out.writeUTF(history.name);
+            }
+        }
+    }
+
+    public static PriceStore load(final File file) throws IOException {
+        final List<String> names = new ArrayList();
+        final long[] dates;
+        final int numSeries;
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(String.format("Not a price store: %s", file));
+            }
+            numSeries = in.readInt();
+            dates = new long[in.readInt()];
+            for (int i = 0; i < dates.length; ++i) {
+                dates[i] = in.readLong();
+            }
+            long skip = 8L * numSeries * dates.length;
+            while (skip > 0) {
+                final long skipped = in.skip(skip);
+                if (skipped <= 0) {
+                    throw new EOFException(String.format("Truncated price store: %s", file));
+                }
+                skip -= skipped;
+            }
+            for (int i = 0; i < numSeries; ++i) {
+                names.add(in.readUTF());
+            }
+        }
+        final long offset = 12 + 8L * dates.length;
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            //The mapping stays valid after the channel is closed.
+            final DoubleBuffer values = raf.getChannel()
+                    .map(FileChannel.MapMode.READ_ONLY, offset, 8L * numSeries * dates.length)
+                    .asDoubleBuffer();
+            return new PriceStore(names, dates, values);
+        }
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    public int numDates() {
+        return dates.length;
+    }
+
+    public boolean has(final String name) {
+        return indexes.containsKey(name);
+    }
+
+    public int indexOf(final String name) {
+        final Integer index = indexes.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException(String.format("No prices for '%s'", name));
+        }
+        return index;
+    }
+
+    public double get(final int series, final int date) {
+        return values.get(series * dates.length + date);
+    }
+
+    /**
+     * First date index where the series has a price.
+     */
+    public int start(final int series) {
+        for (int i = 0; i < dates.length; ++i) {
+            if (!Double.isNaN(get(series, i))) {
+                return i;
+            }
+        }
+        return dates.length;
+    }
+
+    public double[] toArray(final int series) {
+        final double[] res = new double[dates.length];
+        for (int i = 0; i < res.length; ++i) {
+            res[i] = get(series, i);
+        }
+        return res;
+    }
+
+}
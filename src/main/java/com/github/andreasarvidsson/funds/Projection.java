@@ -0,0 +1,125 @@
+package com.github.andreasarvidsson.funds;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Projected value of portfolios over a number of horizons with a start
+ * capital and monthly contributions, using the closed-form future value of
+ * an annuity. Values are linear in the start capital and contribution, so
+ * the growth and annuity factors are computed once and any contribution
+ * level is a multiply-add.
+ *
+ * @author Andreas Arvidsson
+ */
+public class Projection {
+
+    public static final int[] DEFAULT_HORIZONS = {1, 5, 10, 20, 30, 40};
+    private static final int MONTHS_PER_YEAR = 12;
+
+    public final double capital, monthlyContribution;
+    public final int[] horizons;
+
+    public Projection(final double capital, final double monthlyContribution) {
+        this(capital, monthlyContribution, DEFAULT_HORIZONS);
+    }
+
+    public Projection(final double capital, final double monthlyContribution, final int... horizons) {
+        this.capital = capital;
+        this.monthlyContribution = monthlyContribution;
+        this.horizons = horizons.clone();
+    }
+
+    public Factors compute(final Portfolio... portfolios) {
+        return compute(Arrays.asList(portfolios));
+    }
+
+    public Factors compute(final List<Portfolio> portfolios) {
+        final int size = portfolios.size();
+        final double[] grossReturns = new double[size];
+        final double[] fees = new double[size];
+        for (int i = 0; i < size; ++i) {
+            final Portfolio portfolio = portfolios.get(i);
+            grossReturns[i] = getGrossReturn(portfolio);
+            fees[i] = portfolio.avgFee;
+        }
+        return new Factors(grossReturns, fees);
+    }
+
+    /**
+     * Expected annual return in percent before any fees. Developments are
+     * net of the product fee, so it is added back.
+     */
+    public static double getGrossReturn(final Portfolio portfolio) {
+        double res = 0;
+        for (final FundData fd : portfolio.funds) {
+            final Double annualReturn = fd.avanza.getAnnualReturn();
+            res += ((annualReturn != null ? annualReturn : 0) + fd.avanza.productFee) * fd.percentageNormalized;
+        }
+        return res;
+    }
+
+    /**
+     * Growth and annuity factors per portfolio and horizon, with and without
+     * fees.
+     */
+    public class Factors {
+
+        private final int numHorizons = horizons.length;
+        //Portfolio major, horizons are contiguous.
+        private final double[] growth, annuity, grossGrowth, grossAnnuity;
+
+        private Factors(final double[] grossReturns, final double[] fees) {
+            final int size = grossReturns.length;
+            growth = new double[size * numHorizons];
+            annuity = new double[size * numHorizons];
+            grossGrowth = new double[size * numHorizons];
+            grossAnnuity = new double[size * numHorizons];
+            for (int i = 0; i < size; ++i) {
+                final double gross = 1 + grossReturns[i] * 0.01;
+                //Fees are taken continuously from the fund value.
+                final double net = gross * (1 - fees[i] * 0.01);
+                set(growth, annuity, i, net);
+                set(grossGrowth, grossAnnuity, i, gross);
+            }
+        }
+
+        private void set(final double[] growth, final double[] annuity, final int portfolio, final double annualFactor) {
+            final double monthlyRate = Math.pow(annualFactor, 1.0 / MONTHS_PER_YEAR) - 1;
+            for (int h = 0; h < numHorizons; ++h) {
+                final int index = portfolio * numHorizons + h;
+                final int months = horizons[h] * MONTHS_PER_YEAR;
+                growth[index] = Math.pow(1 + monthlyRate, months);
+                //Contributions at the end of each month.
+                annuity[index] = Math.abs(monthlyRate) < 1e-12
+                        ? months
+                        : (growth[index] - 1) / monthlyRate;
+            }
+        }
+
+        public double getValue(final int portfolio, final int horizon) {
+            return getValue(portfolio, horizon, capital, monthlyContribution);
+        }
+
+        public double getValue(final int portfolio, final int horizon, final double capital, final double monthlyContribution) {
+            final int index = portfolio * numHorizons + horizon;
+            return capital * growth[index] + monthlyContribution * annuity[index];
+        }
+
+        /**
+         * Compounded cost of fees, i.e. the value lost compared to the same
+         * portfolio without fees.
+         */
+        public double getFeeDrag(final int portfolio, final int horizon) {
+            return getFeeDrag(portfolio, horizon, capital, monthlyContribution);
+        }
+
+        public double getFeeDrag(final int portfolio, final int horizon, final double capital, final double monthlyContribution) {
+            final int index = portfolio * numHorizons + horizon;
+            return capital * (grossGrowth[index] - growth[index])
+                    + monthlyContribution * (grossAnnuity[index] - annuity[index]);
+        }
+
+    }
+
+}
@@ -1,5 +1,6 @@
 package com.github.andreasarvidsson.funds;
 
+import com.github.andreasarvidsson.funds.util.Fingerprint;
 import com.github.andreasarvidsson.funds.util.Mean;
 import com.github.andreasarvidsson.funds.util.Pair;
 import java.io.IOException;
@@ -55,6 +56,17 @@ public class Rankings {
         Collections.sort(funds, (a, b) -> Double.compare(a.mean, b.mean));
     }
 
+    /**
+     * Hash of the fund snapshots and fees the rankings are computed from.
+     */
+    public String getHash() {
+        final Fingerprint fingerprint = new Fingerprint().add(name);
+        funds.forEach(fr -> {
+            fingerprint.add(fr.avanza.getHash()).add(fr.getFee());
+        });
+        return fingerprint.toString();
+    }
+
     private void calculatePoints() {
         funds.forEach(fr -> {
             final Mean mean = new Mean();
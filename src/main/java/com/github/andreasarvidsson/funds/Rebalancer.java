@@ -0,0 +1,229 @@
+package com.github.andreasarvidsson.funds;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Plans buy and sell orders that bring accounts back within tolerance bands
+ * around the weights of a target portfolio with as few trades as possible.
+ * The target weights are compiled once and shared by every account using it.
+ *
+ * @author Andreas Arvidsson
+ */
+public class Rebalancer {
+
+    public static final String CSV_HEADER = "account,fund,side,amount\n";
+    private static final int ACCOUNTS_PER_BATCH = 4096;
+    private static final double MIN_AMOUNT = 0.01;
+
+    public final String name;
+    //Band around the target weight, in percentage points.
+    public final double tolerance;
+    public final boolean newMoneyOnly;
+    private final String[] funds;
+    private final double[] weights;
+    private final Map<String, Integer> indices = new HashMap();
+
+    public Rebalancer(final Portfolio target, final double tolerance, final boolean newMoneyOnly) {
+        this.name = target.name;
+        this.tolerance = tolerance;
+        this.newMoneyOnly = newMoneyOnly;
+        final int size = target.funds.size();
+        funds = new String[size];
+        weights = new double[size];
+        for (int i = 0; i < size; ++i) {
+            final FundData fd = target.funds.get(i);
+            funds[i] = fd.avanza.name;
+            weights[i] = fd.percentageNormalized;
+            indices.put(fd.avanza.name, i);
+        }
+    }
+
+    public List<Order> plan(final Account account) {
+        final int size = funds.length;
+        final double[] current = new double[size];
+        final List<Order> res = new ArrayList();
+        double total = account.cash;
+        double cash = account.cash;
+        for (final Map.Entry<String, Double> e : account.holdings.entrySet()) {
+            final Integer index = indices.get(e.getKey());
+            total += e.getValue();
+            if (index != null) {
+                current[index] += e.getValue();
+            }
+            //Funds outside the target are sold, unless we may only buy.
+            else if (!newMoneyOnly && e.getValue() >= MIN_AMOUNT) {
+                res.add(new Order(account.id, e.getKey(), -e.getValue()));
+                cash += e.getValue();
+            }
+        }
+        if (total <= 0) {
+            return res;
+        }
+        final double[] trades = new double[size];
+        if (newMoneyOnly) {
+            distribute(current, trades, weights, total, cash, false);
+        }
+        else {
+            final double band = tolerance * 0.01 * total;
+            for (int i = 0; i < size; ++i) {
+                final double target = weights[i] * total;
+                if (Math.abs(current[i] - target) > band) {
+                    trades[i] = target - current[i];
+                    cash -= trades[i];
+                }
+            }
+            if (cash > 0) {
+                distribute(current, trades, weights, total, cash, false);
+            }
+            else if (cash < 0) {
+                distribute(current, trades, weights, total, -cash, true);
+            }
+        }
+        for (int i = 0; i < size; ++i) {
+            if (Math.abs(trades[i]) >= MIN_AMOUNT) {
+                res.add(new Order(account.id, funds[i], trades[i]));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Writes the orders of every account as CSV. Accounts are planned in
+     * parallel one batch at a time, so memory is bounded by the batch size
+     * and not by the number of accounts.
+     */
+    public static void writeOrders(final Iterable<Account> accounts, final Writer writer) throws IOException {
+        writer.write(CSV_HEADER);
+        final List<Account> batch = new ArrayList();
+        for (final Account account : accounts) {
+            batch.add(account);
+            if (batch.size() == ACCOUNTS_PER_BATCH) {
+                writeBatch(batch, writer);
+                batch.clear();
+            }
+        }
+        writeBatch(batch, writer);
+        writer.flush();
+    }
+
+    private static void writeBatch(final List<Account> batch, final Writer writer) throws IOException {
+        final String[] lines = new String[batch.size()];
+        IntStream.range(0, lines.length).parallel().forEach(i -> {
+            final Account account = batch.get(i);
+            lines[i] = toCsv(account.target.plan(account));
+        });
+        for (final String line : lines) {
+            writer.write(line);
+        }
+    }
+
+    /**
+     * Orders as CSV lines, without the header.
+     */
+    public static String toCsv(final List<Order> orders) {
+        final StringBuilder sb = new StringBuilder();
+        orders.forEach(order -> {
+            sb.append(escape(order.account)).append(',')
+                    .append(escape(order.fund)).append(',')
+                    .append(order.amount > 0 ? "buy" : "sell").append(',');
+            appendAmount(sb, Math.abs(order.amount));
+            sb.append('\n');
+        });
+        return sb.toString();
+    }
+
+    //Spreads an amount over the funds furthest from target first, so as few
+    //funds as possible are traded. Sells take from the most overweight.
+    private static void distribute(
+            final double[] current,
+            final double[] trades,
+            final double[] weights,
+            final double total,
+            double amount,
+            final boolean sell) {
+        final int size = current.length;
+        final double sign = sell ? -1 : 1;
+        final Integer[] order = new Integer[size];
+        final double[] gaps = new double[size];
+        for (int i = 0; i < size; ++i) {
+            order[i] = i;
+            gaps[i] = sign * (weights[i] * total - current[i] - trades[i]);
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(gaps[b], gaps[a]));
+        for (final int i : order) {
+            if (amount <= 0 || gaps[i] <= 0) {
+                break;
+            }
+            final double trade = Math.min(amount, gaps[i]);
+            trades[i] += sign * trade;
+            amount -= trade;
+        }
+        //Everything is at target, the rest follows the target weights.
+        if (amount > 0) {
+            for (int i = 0; i < size; ++i) {
+                trades[i] += sign * amount * weights[i];
+            }
+        }
+    }
+
+    //String.format dominates the run time for large batches.
+    private static void appendAmount(final StringBuilder sb, final double amount) {
+        final long cents = Math.round(amount * 100);
+        final long fraction = cents % 100;
+        sb.append(cents / 100).append('.');
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        sb.append(fraction);
+    }
+
+    private static String escape(final String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    public static class Account {
+
+        public final String id;
+        public final Rebalancer target;
+        //Amount in SEK per fund name.
+        public final Map<String, Double> holdings;
+        public final double cash;
+
+        public Account(
+                final String id,
+                final Rebalancer target,
+                final Map<String, Double> holdings,
+                final double cash) {
+            this.id = id;
+            this.target = target;
+            this.holdings = holdings;
+            this.cash = cash;
+        }
+
+    }
+
+    public static class Order {
+
+        public final String account, fund;
+        //Positive amounts are buys and negative sells.
+        public final double amount;
+
+        public Order(final String account, final String fund, final double amount) {
+            this.account = account;
+            this.fund = fund;
+            this.amount = amount;
+        }
+
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.github.andreasarvidsson.funds;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.andreasarvidsson.funds.util.FileCache;
+import java.io.File;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads funds and price histories recorded in a directory. With a delegate
+ * source, anything missing is fetched from it and recorded for next time.
+ *
+ * @author Andreas Arvidsson
+ */
+public class ReplayDataSource implements FundDataSource {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private final File dir;
+    private final FundDataSource delegate;
+
+    public ReplayDataSource(final File dir) {
+        this(dir, null);
+    }
+
+    public ReplayDataSource(final File dir, final FundDataSource delegate) {
+        this.dir = dir;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String getId() {
+        return String.format("replay:%s:%s", dir.getAbsolutePath(), delegate != null ? delegate.getId() : "");
+    }
+
+    @Override
+    public AvanzaFund getFund(final String name) throws IOException {
+        final File file = getFile("fund", name);
+        if (file.exists()) {
+            final AvanzaFund fund = MAPPER.readValue(file, AvanzaFund.class);
+            fund.compile();
+            return fund;
+        }
+        if (delegate == null) {
+            throw new NoSuchElementException(String.format("No recorded fund '%s'", name));
+        }
+        final AvanzaFund fund = delegate.getFund(name);
+        write(file, fund);
+        return fund;
+    }
+
+    @Override
+    public PriceHistory getPriceHistory(final AvanzaFund fund) throws IOException {
+        final File file = getFile("prices", fund.name);
+        if (file.exists()) {
+            return MAPPER.readValue(file, PriceHistory.class);
+        }
+        if (delegate == null) {
+            throw new NoSuchElementException(String.format("No recorded prices for '%s'", fund.name));
+        }
+        final PriceHistory history = delegate.getPriceHistory(fund);
+        write(file, history);
+        return history;
+    }
+
+    private void write(final File file, final Object data) throws IOException {
+        file.getParentFile().mkdirs();
+        MAPPER.writeValue(file, data);
+    }
+
+    private File getFile(final String type, final String name) {
+        return new File(dir, FileCache.encode(String.format("%s_%s.json", type, name)));
+    }
+
+}
@@ -0,0 +1,296 @@
+package com.github.andreasarvidsson.funds;
+
+import com.github.andreasarvidsson.funds.ReportDefinition.FundDefinition;
+import com.github.andreasarvidsson.funds.ReportDefinition.PortfolioDefinition;
+import com.github.andreasarvidsson.funds.ReportDefinition.ScenarioDefinition;
+import com.github.andreasarvidsson.funds.ReportDefinition.ScreenDefinition;
+import com.github.andreasarvidsson.funds.StressTest.Scenario;
+import com.github.andreasarvidsson.funds.util.Fingerprint;
+import com.github.andreasarvidsson.funds.util.SectionCache;
+import com.github.andreasarvidsson.funds.util.TaskGraph;
+import com.github.andreasarvidsson.funds.util.TaskGraph.Node;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates report definitions. Portfolios and rankings are kept between
+ * runs by their definition, so a re-run only builds what was edited.
+ *
+ * @author Andreas Arvidsson
+ */
+public class Report {
+
+    //Editors often write a file in several steps.
+    private static final long DEBOUNCE_MILLIS = 50;
+    //Rewritten by every backtest from the cached price histories.
+    private static final File PRICE_STORE = new File("cache", "prices.bin");
+
+    private final Map<String, Portfolio> portfolios = new ConcurrentHashMap();
+    private final Map<String, Rankings> rankings = new ConcurrentHashMap();
+    private final SectionCache sectionCache = new SectionCache();
+
+    /**
+     * Declares the portfolios, rankings and their sections. Run the graph to
+     * add the sections to the result, in the order of the definition.
+     */
+    public TaskGraph getGraph(final ReportDefinition definition, final Result result) {
+        result.setSectionCache(sectionCache);
+        final TaskGraph graph = new TaskGraph();
+        final Map<String, Node<Portfolio>> nodes = new HashMap();
+        final Map<String, Node<Rankings>> rankingNodes = new HashMap();
+        final Map<String, Portfolio> usedPortfolios = new ConcurrentHashMap();
+        final Map<String, Rankings> usedRankings = new ConcurrentHashMap();
+
+        for (final PortfolioDefinition pd : definition.portfolios) {
+            final String key = getKey(pd, definition.fees);
+            final Node<Portfolio> node = graph.add(pd.name, () -> {
+                Portfolio portfolio = portfolios.get(key);
+                if (portfolio == null) {
+                    prefetchMorningstar(pd);
+                    portfolio = pd.toPortfolio(definition.fees);
+                    portfolio.applyCovariance(Avanza.DATA_SOURCE);
+                }
+                usedPortfolios.put(key, portfolio);
+                HoldingIndex.add(portfolio);
+                return portfolio;
+            });
+            nodes.put(pd.name, node);
+            //Display portfolio metrics.
+            graph.addOrdered("Portfölj, " + pd.name, () -> result.add(node.get()), node);
+            if (definition.simulation != null) {
+                graph.addOrdered(
+                        "Simulering, " + pd.name,
+                        () -> result.add(definition.simulation.toMonteCarlo(node.get())),
+                        node
+                );
+            }
+        }
+
+        //Compare portfolios.
+        for (final List<String> names : definition.comparisons) {
+            final Node<Portfolio> p1 = nodes.get(names.get(0));
+            final Node<Portfolio> p2 = nodes.get(names.get(1));
+            graph.addOrdered(
+                    String.format("Jämförelse, %s / %s", names.get(0), names.get(1)),
+                    () -> result.compare(p1.get(), p2.get()),
+                    p1, p2
+            );
+        }
+
+        //Active share and tracking of the other portfolios against the benchmark.
+        if (definition.benchmark != null) {
+            final Node<Portfolio> benchmark = nodes.get(definition.benchmark);
+            final List<Node<Portfolio>> others = new ArrayList();
+            definition.portfolios.forEach(pd -> {
+                if (!pd.name.equals(definition.benchmark)) {
+                    others.add(nodes.get(pd.name));
+                }
+            });
+            final List<Node> dependencies = new ArrayList(others);
+            dependencies.add(benchmark);
+            graph.addOrdered("Aktiv andel, " + definition.benchmark, () -> {
+                final Portfolio[] portfolios = new Portfolio[others.size()];
+                for (int i = 0; i < portfolios.length; ++i) {
+                    portfolios[i] = others.get(i).get();
+                }
+                result.benchmark(benchmark.get(), portfolios);
+            }, dependencies.toArray(new Node[dependencies.size()]));
+        }
+
+        //Stress test every portfolio under every scenario.
+        if (!definition.scenarios.isEmpty()) {
+            final List<Node<Portfolio>> all = new ArrayList();
+            definition.portfolios.forEach(pd -> {
+                all.add(nodes.get(pd.name));
+            });
+            graph.addOrdered("Stresstest", () -> {
+                final List<Scenario> scenarios = new ArrayList();
+                for (final ScenarioDefinition sd : definition.scenarios) {
+                    scenarios.add(sd.toScenario());
+                }
+                final List<Portfolio> portfolios = new ArrayList();
+                for (final Node<Portfolio> node : all) {
+                    portfolios.add(node.get());
+                }
+                result.add(new StressTest(scenarios, portfolios));
+            }, all.toArray(new Node[all.size()]));
+        }
+
+        //Backtest every portfolio but the benchmark on one price store.
+        if (definition.backtest != null) {
+            final Node<Portfolio> benchmark = definition.benchmark != null ? nodes.get(definition.benchmark) : null;
+            final List<Node<Portfolio>> all = new ArrayList();
+            definition.portfolios.forEach(pd -> {
+                all.add(nodes.get(pd.name));
+            });
+            graph.addOrdered("Backtest", () -> {
+                final List<Portfolio> portfolios = new ArrayList();
+                final Map<String, AvanzaFund> funds = new LinkedHashMap();
+                for (final Node<Portfolio> node : all) {
+                    final Portfolio portfolio = node.get();
+                    if (node != benchmark) {
+                        portfolios.add(portfolio);
+                    }
+                    portfolio.funds.forEach(fd -> {
+                        funds.putIfAbsent(fd.avanza.name, fd.avanza);
+                    });
+                }
+                final PriceStore store = PriceStore.write(PRICE_STORE, Avanza.DATA_SOURCE, funds.values());
+                result.add(
+                        definition.benchmark != null ? "mot " + definition.benchmark : "utan index",
+                        Backtest.sweep(
+                                store,
+                                portfolios,
+                                definition.backtest.rebalanceDays,
+                                benchmark != null ? benchmark.get() : null,
+                                definition.backtest.benchmarkRebalanceDays
+                        )
+                );
+            }, all.toArray(new Node[all.size()]));
+        }
+
+        //Rank different funds.
+        for (final PortfolioDefinition rd : definition.rankings) {
+            final String key = getKey(rd, definition.fees);
+            final Node<Rankings> node = graph.add(rd.name, () -> {
+                Rankings r = rankings.get(key);
+                if (r == null) {
+                    r = rd.toRankings(definition.fees);
+                }
+                usedRankings.put(key, r);
+                return r;
+            });
+            rankingNodes.put(rd.name, node);
+            graph.addOrdered("Rankning, " + rd.name, () -> result.add(node.get()), node);
+        }
+
+        //Efficient frontiers of the funds in portfolios or rankings.
+        for (final String name : definition.frontiers) {
+            final Node<Portfolio> portfolioNode = nodes.get(name);
+            if (portfolioNode != null) {
+                graph.addOrdered("Effektiv front, " + name, () -> {
+                    final Portfolio portfolio = portfolioNode.get();
+                    result.add(new EfficientFrontier(portfolio, getCovariance(EfficientFrontier.toFunds(portfolio))));
+                }, portfolioNode);
+            }
+            else {
+                final Node<Rankings> rankingNode = rankingNodes.get(name);
+                graph.addOrdered("Effektiv front, " + name, () -> {
+                    final Rankings r = rankingNode.get();
+                    result.add(new EfficientFrontier(r, getCovariance(EfficientFrontier.toFunds(r))));
+                }, rankingNode);
+            }
+        }
+
+        //Screens share one screener over the cached funds.
+        if (!definition.screens.isEmpty()) {
+            final Node<Screener> screener = graph.add("Screener", Screener::fromCache);
+            for (final ScreenDefinition sd : definition.screens) {
+                graph.addOrdered("Sökning, " + sd.name, () -> result.add(sd.toRankings(screener.get())), screener);
+            }
+        }
+
+        //Only what the latest definition uses is kept.
+        graph.addOrdered("Städa", () -> {
+            portfolios.keySet().retainAll(usedPortfolios.keySet());
+            portfolios.putAll(usedPortfolios);
+            rankings.keySet().retainAll(usedRankings.keySet());
+            rankings.putAll(usedRankings);
+        });
+        return graph;
+    }
+
+    /**
+     * Prints the report again every time the file is saved. Never returns.
+     */
+    public void watch(final File file) throws IOException {
+        final Path path = file.getAbsoluteFile().toPath();
+        try (final WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            path.getParent().register(
+                    watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY
+            );
+            System.out.printf("Watching %s\n\n", path);
+            while (true) {
+                final WatchKey key = watcher.take();
+                boolean changed = false;
+                for (final WatchEvent<?> event : key.pollEvents()) {
+                    if (path.getFileName().equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+                if (changed) {
+                    //Drain the rest of the save.
+                    WatchKey next;
+                    while ((next = watcher.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                        next.pollEvents();
+                        next.reset();
+                    }
+                    run(file);
+                }
+            }
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run(final File file) {
+        try {
+            final ReportDefinition definition = ReportDefinition.load(file);
+            HoldingIndex.clearPortfolios();
+            //The workbook is only saved by the first run.
+            final Result result = new Result(System.out, false);
+            getGraph(definition, result).run();
+            result.print();
+        }
+        //A half written or invalid file is reported and the next save is awaited.
+        catch (final IOException | RuntimeException e) {
+            System.err.printf("Can't evaluate %s: %s\n\n", file, e);
+        }
+    }
+
+    //Portfolios only use company sizes that are already loaded.
+    private static void prefetchMorningstar(final PortfolioDefinition pd) throws IOException {
+        final List<AvanzaFund> funds = new ArrayList();
+        for (final FundDefinition fund : pd.funds) {
+            funds.add(Avanza.getFund(fund.name));
+        }
+        Morningstar.get(funds);
+    }
+
+    //Null when there isn't enough price history, the frontier then estimates it.
+    private static Covariance getCovariance(final List<AvanzaFund> funds) {
+        try {
+            return Covariance.get(Avanza.DATA_SOURCE, funds);
+        }
+        catch (final IOException | RuntimeException e) {
+            System.err.printf("No covariance, estimating it: %s\n", e);
+            return null;
+        }
+    }
+
+    private static String getKey(final PortfolioDefinition pd, final Map<String, Double> fees) {
+        final Fingerprint fingerprint = new Fingerprint().addJson(pd);
+        pd.funds.forEach(fund -> {
+            fingerprint.add(fund.name).add(fees.get(fund.name));
+        });
+        return fingerprint.toString();
+    }
+
+}
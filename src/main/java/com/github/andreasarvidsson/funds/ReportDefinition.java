@@ -0,0 +1,316 @@
+package com.github.andreasarvidsson.funds;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.andreasarvidsson.funds.Country.Market;
+import com.github.andreasarvidsson.funds.Country.Region;
+import com.github.andreasarvidsson.funds.StressTest.Scenario;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Portfolios, comparisons and rankings of a report, read from json.
+ *
+ * {
+ *   "fees": {"Swedbank Robur Technology A": 1.06},
+ *   "portfolios": [{"name": "P", "lookThrough": false, "funds": [{"name": "...", "percentage": 60, "fee": 0.2}]}],
+ *   "comparisons": [["P1", "P2"]],
+ *   "rankings": [{"name": "R", "funds": [{"name": "..."}]}],
+ *   "benchmark": "P1",
+ *   "scenarios": [{"name": "S", "countries": {"Sverige": -20}, "regions": {"Asien": -30},
+ *       "markets": {"EMERING": -25}, "sectors": {"Teknik": -40}}],
+ *   "backtest": {"rebalanceDays": [0, 21, 252], "benchmarkRebalanceDays": 0},
+ *   "frontiers": ["P1", "R"],
+ *   "simulation": {"years": 10, "paths": 100000, "seed": 1, "correlation": 0.8},
+ *   "screens": [{"name": "S", "filters": [{"key": "Avgift (%)", "max": 0.3}, {"key": "Land: Japan", "min": 5}]}]
+ * }
+ *
+ * Fees override the fee from Avanza wherever the fund is used, unless the
+ * fund has a fee of its own. Portfolio names are unique and every portfolio
+ * fund needs a percentage. The benchmark is one of the portfolios, the
+ * others are measured against it. Scenarios are stress tested on all
+ * portfolios, shocks are in percent. The backtest runs every portfolio
+ * with every rebalancing interval in days, 0 is never, against the
+ * benchmark if there is one. Frontiers are the efficient portfolios of the
+ * funds in a portfolio or ranking. The simulation is run for every
+ * portfolio. Screens rank the cached funds matching all filters, bounds
+ * are inclusive.
+ *
+ * @author Andreas Arvidsson
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ReportDefinition {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public Map<String, Double> fees = new LinkedHashMap();
+    public List<PortfolioDefinition> portfolios = new ArrayList();
+    public List<List<String>> comparisons = new ArrayList();
+    public List<PortfolioDefinition> rankings = new ArrayList();
+    public String benchmark;
+    public List<ScenarioDefinition> scenarios = new ArrayList();
+    public BacktestDefinition backtest;
+    public List<String> frontiers = new ArrayList();
+    public SimulationDefinition simulation;
+    public List<ScreenDefinition> screens = new ArrayList();
+
+    public static ReportDefinition load(final File file) throws IOException {
+        final ReportDefinition res = MAPPER.readValue(file, ReportDefinition.class);
+        final Set<String> portfolioNames = new HashSet();
+        for (final PortfolioDefinition pd : res.portfolios) {
+            pd.validate(true);
+            if (!portfolioNames.add(pd.name)) {
+                throw new IllegalArgumentException(String.format("Duplicate portfolio '%s'", pd.name));
+            }
+        }
+        res.rankings.forEach(PortfolioDefinition::validate);
+        for (final List<String> names : res.comparisons) {
+            if (names.size() != 2) {
+                throw new IllegalArgumentException(String.format("Expected two portfolios in comparison %s", names));
+            }
+            for (final String name : names) {
+                if (res.getPortfolio(name) == null) {
+                    throw new IllegalArgumentException(String.format("Unknown portfolio '%s' in comparison", name));
+                }
+            }
+        }
+        if (res.benchmark != null && res.getPortfolio(res.benchmark) == null) {
+            throw new IllegalArgumentException(String.format("Unknown benchmark portfolio '%s'", res.benchmark));
+        }
+        for (final ScenarioDefinition sd : res.scenarios) {
+            sd.toScenario();
+        }
+        if (res.backtest != null) {
+            res.backtest.validate();
+        }
+        if (res.simulation != null) {
+            res.simulation.validate();
+        }
+        res.screens.forEach(ScreenDefinition::validate);
+        for (final String name : res.frontiers) {
+            if (res.getPortfolio(name) == null && res.getRanking(name) == null) {
+                throw new IllegalArgumentException(String.format("Unknown portfolio or ranking '%s' in frontiers", name));
+            }
+        }
+        return res;
+    }
+
+    public PortfolioDefinition getPortfolio(final String name) {
+        for (final PortfolioDefinition pd : portfolios) {
+            if (pd.name.equals(name)) {
+                return pd;
+            }
+        }
+        return null;
+    }
+
+    public PortfolioDefinition getRanking(final String name) {
+        for (final PortfolioDefinition rd : rankings) {
+            if (rd.name.equals(name)) {
+                return rd;
+            }
+        }
+        return null;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class PortfolioDefinition {
+
+        public String name;
+        public boolean lookThrough;
+        public List<FundDefinition> funds;
+
+        public Portfolio toPortfolio(final Map<String, Double> fees) throws IOException {
+            validate(true);
+            return new Portfolio(name, lookThrough, getSelectedFunds(fees));
+        }
+
+        public Rankings toRankings(final Map<String, Double> fees) throws IOException {
+            return new Rankings(name, getSelectedFunds(fees));
+        }
+
+        public List<SelectedFund> getSelectedFunds(final Map<String, Double> fees) {
+            validate();
+            final List<SelectedFund> res = new ArrayList();
+            funds.forEach(fund -> {
+                res.add(fund.toSelectedFund(fees));
+            });
+            return res;
+        }
+
+        public void validate() {
+            validate(false);
+        }
+
+        /**
+         * Portfolios need a percentage for every fund, rankings don't.
+         */
+        public void validate(final boolean requirePercentages) {
+            if (name == null || funds == null || funds.isEmpty()) {
+                throw new IllegalArgumentException("Expected name and funds");
+            }
+            double percentageSum = 0;
+            for (final FundDefinition fund : funds) {
+                if (fund.name == null) {
+                    throw new IllegalArgumentException(String.format("Expected fund name in '%s'", name));
+                }
+                if (!requirePercentages) {
+                    continue;
+                }
+                if (fund.percentage == null || fund.percentage < 0 || fund.percentage.isInfinite()) {
+                    throw new IllegalArgumentException(String.format(
+                            "Expected a percentage for '%s' in '%s'", fund.name, name
+                    ));
+                }
+                percentageSum += fund.percentage;
+            }
+            if (requirePercentages && !(percentageSum > 0)) {
+                throw new IllegalArgumentException(String.format("Expected percentages in '%s'", name));
+            }
+        }
+
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class ScenarioDefinition {
+
+        public String name;
+        public Map<String, Double> countries = new LinkedHashMap();
+        public Map<String, Double> regions = new LinkedHashMap();
+        public Map<Market, Double> markets = new LinkedHashMap();
+        public Map<String, Double> sectors = new LinkedHashMap();
+
+        /**
+         * Countries and regions are resolved here, sectors when the scenario
+         * is run against the sectors of the funds.
+         */
+        public Scenario toScenario() {
+            if (name == null) {
+                throw new IllegalArgumentException("Expected scenario name");
+            }
+            final Scenario res = new Scenario(name);
+            countries.forEach(res::country);
+            regions.forEach((region, shock) -> {
+                res.region(Region.fromString(region), shock);
+            });
+            markets.forEach(res::market);
+            sectors.forEach(res::sector);
+            return res;
+        }
+
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class BacktestDefinition {
+
+        public int[] rebalanceDays = {0};
+        public int benchmarkRebalanceDays;
+
+        public void validate() {
+            if (rebalanceDays == null || rebalanceDays.length == 0) {
+                throw new IllegalArgumentException("Expected backtest rebalance days");
+            }
+            for (final int days : rebalanceDays) {
+                if (days < 0) {
+                    throw new IllegalArgumentException(String.format("Negative backtest rebalance days %d", days));
+                }
+            }
+            if (benchmarkRebalanceDays < 0) {
+                throw new IllegalArgumentException(String.format(
+                        "Negative benchmark rebalance days %d", benchmarkRebalanceDays
+                ));
+            }
+        }
+
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class SimulationDefinition {
+
+        public int years = 10;
+        public int paths = 10000;
+        public long seed;
+        //Null for the default of MonteCarlo.
+        public Double correlation;
+
+        public MonteCarlo toMonteCarlo(final Portfolio portfolio) {
+            return correlation != null
+                    ? new MonteCarlo(portfolio, years, paths, seed, correlation)
+                    : new MonteCarlo(portfolio, years, paths, seed);
+        }
+
+        public void validate() {
+            if (years <= 0 || paths <= 0) {
+                throw new IllegalArgumentException("Expected a positive number of simulation years and paths");
+            }
+            if (correlation != null && !(correlation >= 0 && correlation <= 1)) {
+                throw new IllegalArgumentException(String.format("Expected a correlation in [0, 1], got %s", correlation));
+            }
+        }
+
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class ScreenDefinition {
+
+        public String name;
+        public List<FilterDefinition> filters = new ArrayList();
+
+        public Rankings toRankings(final Screener screener) throws IOException {
+            final Screener.Query query = screener.query();
+            filters.forEach(filter -> {
+                query.between(
+                        filter.key,
+                        filter.min != null ? filter.min : Double.NEGATIVE_INFINITY,
+                        filter.max != null ? filter.max : Double.POSITIVE_INFINITY
+                );
+            });
+            return query.toRankings(name);
+        }
+
+        public void validate() {
+            if (name == null) {
+                throw new IllegalArgumentException("Expected screen name");
+            }
+            for (final FilterDefinition filter : filters) {
+                if (filter.key == null || (filter.min == null && filter.max == null)) {
+                    throw new IllegalArgumentException(String.format("Expected key and min or max in screen '%s'", name));
+                }
+            }
+        }
+
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class FilterDefinition {
+
+        public String key;
+        public Double min, max;
+
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class FundDefinition {
+
+        public String name;
+        public Double percentage, fee;
+
+        public SelectedFund toSelectedFund(final Map<String, Double> fees) {
+            final Double f = fee != null ? fee : fees.get(name);
+            if (percentage != null) {
+                return f != null
+                        ? new SelectedFund(percentage, name, f)
+                        : new SelectedFund(percentage, name);
+            }
+            return f != null ? new SelectedFund(name, f) : new SelectedFund(name);
+        }
+
+    }
+
+}
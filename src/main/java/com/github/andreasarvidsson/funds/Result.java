@@ -2,18 +2,28 @@ package com.github.andreasarvidsson.funds;
 
 import com.github.andreasarvidsson.funds.Country.Region;
 import com.github.andreasarvidsson.funds.util.AsciiTable;
+import com.github.andreasarvidsson.funds.util.Cell;
 import com.github.andreasarvidsson.funds.util.Comparison;
 import com.github.andreasarvidsson.funds.util.Excel;
 import com.github.andreasarvidsson.funds.util.Excel.ExcelTable;
+import com.github.andreasarvidsson.funds.util.Export;
+import com.github.andreasarvidsson.funds.util.Fingerprint;
+import com.github.andreasarvidsson.funds.util.Pair;
+import com.github.andreasarvidsson.funds.util.SectionCache;
+import com.github.andreasarvidsson.funds.util.Table;
+import com.github.andreasarvidsson.funds.util.TaskGraph;
 import com.github.andreasarvidsson.funds.util.Values;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.Flushable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  *
@@ -21,121 +31,457 @@ import java.util.List;
  */
 public class Result {
 
-    private final static String SPACE = "   |   ";
-    private final static String MISSING = "-";
-    private final Excel excel = new Excel();
-    private final StringBuilder sb = new StringBuilder("\n");
+    private final static String SPACE = Table.SEPARATOR;
+    private final static Cell SPACE_CELL = Cell.text(SPACE);
+    //Export keys of compared portfolios, whose names are fields of the record.
+    private final static String FIRST = "Första", SECOND = "Andra", DIFFERENCE = "Skillnad";
+    private final static String PERCENT_UNIT = " (%)", AMOUNT_UNIT = " (kr)";
+    private final static double[] PERCENTILES = {5, 25, 50, 75, 95};
+    private final static double[] DRAWDOWNS = {10, 20, 30, 40, 50};
+    private final static List<String> TRACKING_TITLES = Arrays.asList(
+            Headers.T_1_Y, Headers.T_3_Y, Headers.T_5_Y
+    );
+    //Null when only writing to exports.
+    private final Excel excel;
+    private final List<Export> exports = new ArrayList();
+    private Projection projection = new Projection(100000, 1000);
+    private SectionCache sectionCache;
+    //Null when streaming to an output.
+    private final StringBuilder sb;
+    //Null when only writing to exports.
+    private final Appendable out;
     private final long t0 = System.currentTimeMillis();
 
+    /**
+     * Collects the ascii output until print.
+     */
+    public Result() {
+        excel = new Excel();
+        sb = new StringBuilder("\n");
+        out = sb;
+    }
+
+    /**
+     * Writes each section to the output as soon as it's added, e.g.
+     * System.out, so nothing but the Excel workbook grows with the report.
+     */
+    public Result(final Appendable out) {
+        this(out, true);
+    }
+
+    /**
+     * Same as above, but without the Excel workbook when not saving, which
+     * is most of the time spent adding a section. Portfolios are not added
+     * to the holding index, which is only used by the full report.
+     */
+    public Result(final Appendable out, final boolean excel) {
+        this.excel = excel ? new Excel() : null;
+        this.sb = null;
+        this.out = out;
+        write("\n");
+    }
+
+    /**
+     * Writes the sections to the export only, without ascii or Excel
+     * output, for callers evaluating many portfolios in one process.
+     * Portfolios are not added to the holding index either.
+     */
+    public Result(final Export export) {
+        this.excel = null;
+        this.sb = null;
+        this.out = null;
+        exports.add(export);
+    }
+
+    /**
+     * Start capital, monthly contribution and horizons used in comparisons.
+     */
+    public void setProjection(final Projection projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * Reuse the tables of sections whose inputs haven't changed since a
+     * previous run.
+     */
+    public void setSectionCache(final SectionCache sectionCache) {
+        this.sectionCache = sectionCache;
+    }
+
+    /**
+     * Every section added after this is also written to the export. The
+     * caller closes it when the report is done.
+     */
+    public void addExport(final Export export) {
+        exports.add(export);
+    }
+
     public void add(final Portfolio portfolio) {
         addFundsTable(portfolio);
         addStatsTable(portfolio);
     }
 
     public void add(final Rankings rankings) {
-        final AsciiTable asciiTable = new AsciiTable();
-        final ExcelTable excelTable = excel.getTable("Rankning");
+        final Fingerprint inputs = new Fingerprint().add("Rankning").add(rankings.getHash());
+        add("Rankning", getTable(inputs, () -> getRankingsTable(rankings)));
+    }
 
+    private Table getRankingsTable(final Rankings rankings) {
         final String title = String.format("Rankning, %s", rankings.name);
-        sb.append(getAsciiTitle(title));
-        excelTable.addTitle(getExcelTitle(title));
-        excelTable.addRow();
+        final Table table = new Table(title);
 
         final List<String> headersRow = getRankingsHeadersRow(rankings);
-        asciiTable.addRow(headersRow);
-        asciiTable.addHR();
-        excelTable.addRow(headersRow);
-        excelTable.addHR();
+        table.addHeaders(headersRow);
+        table.addHR();
+
+        final List<List<Cell>> rows = getRankingsRows(rankings);
+        table.addRows(rows);
+        table.addRow();
+        return table;
+    }
+
+    public void add(final MonteCarlo monteCarlo) {
+        final String title = String.format(
+                "Simulering, %s, %d år, %d utfall",
+                monteCarlo.name, monteCarlo.years, monteCarlo.paths
+        );
+        final Table table = new Table(title);
+
+        final List<String> headersRow = Arrays.asList(
+                "Percentil", "Värde", "Årlig (%)", "Största nedgång (%)",
+                SPACE,
+                "Nedgång (%)", "Sannolikhet (%)"
+        );
+        table.addHeaders(headersRow);
+        table.addHR();
+
+        final List<List<Cell>> rows = getMonteCarloRows(monteCarlo);
+        table.addRows(rows);
+        table.addRow();
+        add("Simulering", table);
+    }
+
+    public void add(final EfficientFrontier frontier) {
+        final String title = String.format("Effektiv front, %s", frontier.name);
+        final Table table = new Table(title);
+
+        final List<Region> regions = new ArrayList();
+        for (final Region region : Region.values()) {
+            for (final EfficientFrontier.Point point : frontier.points) {
+                if (point.portfolio.regions.get(region.name, 0.0) > 0) {
+                    regions.add(region);
+                    break;
+                }
+            }
+        }
+
+        final List<String> headersRow = new ArrayList(Arrays.asList(
+                "Avkastning (%)", Headers.STANDARD_DEVIATION, Headers.FEE, Headers.NON_DEVELOPED_MARKETS
+        ));
+        regions.forEach(region -> {
+            headersRow.add(String.format("%s (%%)", region.name));
+        });
+        headersRow.add(SPACE);
+        headersRow.addAll(frontier.funds);
+        table.addHeaders(headersRow);
+        table.addHR();
+
+        final List<List<Cell>> rows = new ArrayList();
+        frontier.points.forEach(point -> {
+            final List<Cell> row = new ArrayList(Arrays.asList(
+                    percent(point.expectedReturn),
+                    percent(point.volatility),
+                    percent(point.portfolio.avgFee),
+                    percent(point.portfolio.nonDevelopedMarkets)
+            ));
+            regions.forEach(region -> {
+                row.add(percent(point.portfolio.regions.get(region.name, 0.0)));
+            });
+            row.add(SPACE_CELL);
+            for (final double weight : point.weights) {
+                row.add(percent(weight * 100));
+            }
+            rows.add(row);
+        });
+        table.addRows(rows);
+        table.addRow();
+        add("Effektiv front", table);
+    }
+
+    public void add(final String name, final List<Backtest> backtests) {
+        final String title = String.format("Backtest, %s", name);
+        final Table table = new Table(title);
+
+        final List<String> headersRow = Arrays.asList(
+                "", "Ombalansering (dagar)", "Årlig (%)", "Största nedgång (%)",
+                "Skillnad mot index (%)", "Aktiv risk (%)"
+        );
+        table.addHeaders(headersRow);
+        table.addHR();
+
+        final List<List<Cell>> rows = new ArrayList();
+        backtests.forEach(backtest -> {
+            rows.add(Arrays.asList(
+                    Cell.text(backtest.name),
+                    backtest.rebalanceDays > 0 ? Cell.number((double) backtest.rebalanceDays, 0) : Cell.MISSING,
+                    percent(backtest.cagr),
+                    percent(backtest.maxDrawdown),
+                    percent(backtest.trackingDifference),
+                    percent(backtest.trackingError)
+            ));
+        });
+        table.addRows(rows);
+        table.addRow();
+        add("Backtest", table);
+    }
+
+    public void benchmark(final Portfolio benchmark, final Portfolio... portfolios) {
+        final String title = String.format("Aktiv andel mot %s", benchmark.name);
+        final Table table = new Table(title);
+
+        final List<String> headersRow = new ArrayList(Arrays.asList(
+                "", "Aktiv andel (%)",
+                "Bransch över (%)", "Bransch under (%)",
+                "Region över (%)", "Region under (%)"
+        ));
+        TRACKING_TITLES.forEach(key -> {
+            headersRow.add(String.format("%s (%%)", key));
+        });
+        table.addHeaders(headersRow);
+        table.addHR();
+
+        final List<List<Cell>> rows = new ArrayList();
+        ActiveShare.compute(Arrays.asList(portfolios), benchmark).forEach(as -> {
+            final List<Cell> row = new ArrayList(Arrays.asList(
+                    Cell.text(as.name),
+                    percent(as.activeShare),
+                    formatActiveWeight(as.sectors, true),
+                    formatActiveWeight(as.sectors, false),
+                    formatActiveWeight(as.regions, true),
+                    formatActiveWeight(as.regions, false)
+            ));
+            TRACKING_TITLES.forEach(key -> {
+                row.add(percent(as.getTrackingDifference(key)));
+            });
+            rows.add(row);
+        });
+        table.addRows(rows);
+        table.addRow();
+        add("Aktiv andel", table);
+    }
+
+    /**
+     * The largest single company exposures of the portfolios in HoldingIndex.
+     */
+    public void addTopHoldings(final int n) {
+        final String title = "Största bolagsexponeringar";
+        final Table table = new Table(title);
+
+        final List<String> headersRow = Arrays.asList(Headers.HOLDINGS, "Portfölj", Headers.PERCENTAGE, "Fonder");
+        table.addHeaders(headersRow);
+        table.addHR();
+
+        final List<List<Cell>> rows = new ArrayList();
+        HoldingIndex.getTop(n).forEach(exposure -> {
+            final List<String> funds = new ArrayList();
+            HoldingIndex.getFunds(exposure.company).forEach(p -> {
+                funds.add(p.first());
+            });
+            rows.add(Arrays.asList(
+                    Cell.text(exposure.company),
+                    Cell.text(exposure.portfolio.name),
+                    percent(exposure.weight),
+                    Cell.text(String.join(", ", funds))
+            ));
+        });
+        table.addRows(rows);
+        table.addRow();
+        add("Bolagsexponering", table);
+    }
+
+    public void add(final StressTest stressTest) {
+        final String title = "Stresstest, förändring (%)";
+        final Table table = new Table(title);
 
-        final List<List<String>> rows = getRankingsRows(rankings);
-        asciiTable.addRows(rows);
-        excelTable.addRows(rows);
+        final List<String> headersRow = new ArrayList();
+        headersRow.add("Portfölj");
+        stressTest.scenarios.forEach(scenario -> {
+            headersRow.add(scenario.name);
+        });
+        table.addHeaders(headersRow);
+        table.addHR();
+
+        final List<List<Cell>> rows = new ArrayList();
+        for (int p = 0; p < stressTest.portfolios.size(); ++p) {
+            final List<Cell> row = new ArrayList();
+            row.add(Cell.text(stressTest.portfolios.get(p).name));
+            for (int s = 0; s < stressTest.scenarios.size(); ++s) {
+                row.add(percent(stressTest.getChange(p, s)));
+            }
+            rows.add(row);
+        }
+        table.addRows(rows);
+        table.addRow();
+        add("Stresstest", table);
+    }
+
+    /**
+     * Timings of the steps of a run, with the critical path marked.
+     */
+    public void add(final TaskGraph graph) {
+        final Table table = new Table("Körning");
+        table.addHeaders(Arrays.asList("Steg", "Start (s)", "Tid (s)", "Kritisk väg"));
+        table.addHR();
+
+        final List<List<Cell>> rows = new ArrayList();
+        double criticalTime = 0;
+        for (final TaskGraph.Node node : graph.getNodes()) {
+            rows.add(Arrays.asList(
+                    Cell.text(node.name),
+                    format(node.getStart()),
+                    format(node.getTime()),
+                    Cell.text(node.isCritical() ? "x" : "")
+            ));
+            if (node.isCritical()) {
+                criticalTime += node.getTime();
+            }
+        }
+        table.addRows(rows);
+        table.addHR();
+        table.addRow(Arrays.asList(Cell.text("Totalt"), Cell.EMPTY, format(graph.getTime()), format(criticalTime)));
+        table.addRow();
+        add("Körning", table);
+    }
 
-        asciiTable.addRow();
-        excelTable.addRow();
-        sb.append(asciiTable.toString());
-        excelTable.autoSizeColumns(headersRow.size());
+    /**
+     * Exposure per sector and region, side by side for the portfolios.
+     */
+    public void addExposure(final Portfolio... portfolios) {
+        final String title = "Sektor per region";
+        final Table table = new Table(title);
+
+        final List<ExposureCube> cubes = new ArrayList();
+        final List<String> headersRow = new ArrayList(Arrays.asList(Headers.SECTOR, Headers.REGION));
+        final List<String> keys = new ArrayList(headersRow);
+        for (int i = 0; i < portfolios.length; ++i) {
+            final String key = String.format("Portfölj %d", i + 1);
+            cubes.add(portfolios[i].exposureCube);
+            headersRow.add(portfolios[i].name);
+            keys.add(key + PERCENT_UNIT);
+            table.addField(key, portfolios[i].name);
+        }
+        table.addHeaders(headersRow, keys);
+        table.addHR();
+
+        final List<List<Cell>> rows = new ArrayList();
+        final int numSectors = ExposureCube.getNumSectors();
+        for (int sector = 0; sector < numSectors; ++sector) {
+            final String sectorName = ExposureCube.getSectorName(sector);
+            for (final Region region : Region.values()) {
+                final double[] values = ExposureCube.slice(cubes, sectorName, region, null);
+                if (Arrays.stream(values).allMatch(value -> value < 0.005)) {
+                    continue;
+                }
+                final List<Cell> row = new ArrayList(Arrays.asList(Cell.text(sectorName), Cell.text(region.name)));
+                for (final double value : values) {
+                    row.add(percent(value));
+                }
+                rows.add(row);
+            }
+        }
+        table.addRows(rows);
+        table.addRow();
+        add("Sektor per region", table);
     }
 
     public void compare(final Portfolio p1, final Portfolio p2) {
-        final AsciiTable asciiTable = new AsciiTable();
-        final ExcelTable excelTable = excel.getTable("Jämförelse");
+        final Fingerprint inputs = new Fingerprint()
+                .add("Jämförelse")
+                .add(p1.getHash())
+                .add(p2.getHash())
+                .add(projection.capital)
+                .add(projection.monthlyContribution)
+                .add(Arrays.toString(projection.horizons));
+        add("Jämförelse", getTable(inputs, () -> getCompareTable(p1, p2)));
+    }
 
+    private Table getCompareTable(final Portfolio p1, final Portfolio p2) {
         final String title = String.format("%s vs %s", p1.name, p2.name);
-        sb.append(getAsciiTitle(title));
-        excelTable.addTitle(getExcelTitle(title));
-        excelTable.addRow();
+        final Table table = new Table(title);
+
+        table.addField(String.format("%s portfölj", FIRST), p1.name);
+        table.addField(String.format("%s portfölj", SECOND), p2.name);
 
         final List<String> headersRow1 = getCompareHeadersRow(p1, p2);
-        asciiTable.addRow(headersRow1);
-        asciiTable.addHR();
-        excelTable.addRow(headersRow1);
-        excelTable.addHR();
+        table.addHeaders(headersRow1, getCompareKeys("", "", "Utveckling", PERCENT_UNIT));
+        table.addHR();
 
-        final List<List<String>> rows1 = getCompareRows(p1, p2);
-        asciiTable.addRows(rows1);
-        excelTable.addRows(rows1);
-        asciiTable.addRow();
-        excelTable.addRow();
+        final List<List<Cell>> rows1 = getCompareRows(p1, p2);
+        table.addRows(rows1);
+        table.addRow();
 
         final List<String> headersRow2 = getCompareHeadersRow(p1, p2, Headers.HOLDINGS, Headers.SECTOR);
-        asciiTable.addRow(headersRow2);
-        asciiTable.addHR();
-        excelTable.addRow(headersRow2);
-        excelTable.addHR();
+        table.addHeaders(headersRow2, getCompareKeys(Headers.HOLDINGS, PERCENT_UNIT, Headers.SECTOR, PERCENT_UNIT));
+        table.addHR();
 
-        final List<List<String>> rows2 = new ArrayList();
+        final List<List<Cell>> rows2 = new ArrayList();
         compareValues(rows2, true, p1.holdings, p2.holdings);
         compareValues(rows2, false, p1.sectors, p2.sectors);
-        asciiTable.addRows(rows2);
-        excelTable.addRows(rows2);
-        asciiTable.addRow();
-        excelTable.addRow();
+        table.addRows(rows2);
+        table.addRow();
 
         final List<String> headersRow3 = getCompareHeadersRow(p1, p2, Headers.LAND, Headers.REGION);
-        asciiTable.addRow(headersRow3);
-        asciiTable.addHR();
-        excelTable.addRow(headersRow3);
-        excelTable.addHR();
+        table.addHeaders(headersRow3, getCompareKeys(Headers.LAND, PERCENT_UNIT, Headers.REGION, PERCENT_UNIT));
+        table.addHR();
 
-        final List<List<String>> rows3 = new ArrayList();
+        final List<List<Cell>> rows3 = new ArrayList();
         compareValues(rows3, true, p1.countries, p2.countries);
         compareValues(rows3, false, p1.regions, p2.regions);
-        asciiTable.addRows(rows3);
-        excelTable.addRows(rows3);
-        asciiTable.addRow();
-        excelTable.addRow();
-
-        //TODO missing size info for now
-        //        if (!p1.companiesSize.isEmpty() && !p2.companiesSize.isEmpty()) {
-//            res.addAll(Arrays.asList(
-//                    "Storlek",
-//                    String.format("%s (%%)", p1.name),
-//                    String.format("%s (%%)", p2.name),
-//                    Headers.DIFFERENCE
-//            ));
-//        }
-//        else {
-//            res.addAll(Arrays.asList("", "", "", ""));
-//        }
-//  if (!p1.companiesSize.isEmpty() && !p2.companiesSize.isEmpty()) {
-//            compareValues(res, false, p1.companiesSize, p2.companiesSize);
-//        }
-        sb.append(asciiTable.toString());
-        excelTable.autoSizeColumns(headersRow1.size());
+        table.addRows(rows3);
+        table.addRow();
+
+        final List<String> headersRow4 = getCompareProjectionHeadersRow(p1, p2);
+        table.addHeaders(headersRow4, getCompareKeys("Värde", AMOUNT_UNIT, "Avgifter", AMOUNT_UNIT));
+        table.addHR();
+
+        final List<List<Cell>> rows4 = getCompareProjectionRows(p1, p2);
+        table.addRows(rows4);
+        table.addRow();
+
+        if (!p1.companiesSize.isEmpty() && !p2.companiesSize.isEmpty()) {
+            final List<String> headersRow5 = Arrays.asList(
+                    "Storlek",
+                    String.format("%s (%%)", p1.name),
+                    String.format("%s (%%)", p2.name),
+                    Headers.DIFFERENCE
+            );
+            table.addHeaders(headersRow5, getCompareKeys("Storlek", PERCENT_UNIT, "", "").subList(0, 4));
+            table.addHR();
+
+            final List<List<Cell>> rows5 = new ArrayList();
+            compareValues(rows5, true, p1.companiesSize, p2.companiesSize);
+            table.addRows(rows5);
+            table.addRow();
+        }
+        return table;
     }
 
     public void print() {
-        System.out.println(toString());
+        if (sb != null) {
+            System.out.println(toString());
+        }
         System.out.printf("Elapsed time: %.1fs\n\n", (System.currentTimeMillis() - t0) * 0.001);
     }
 
     @Override
     public String toString() {
-        return sb.toString();
+        return sb != null ? sb.toString() : "";
     }
 
     public void save() throws FileNotFoundException, IOException {
+        if (excel == null) {
+            throw new IllegalStateException("Result has no Excel workbook");
+        }
         if (!excel.hasTable("Om")) {
             final ExcelTable excelTable = excel.getTable("Om");
             excelTable.addRow(Arrays.asList("Skapad av", "Andreas Arvidsson"));
@@ -144,61 +490,98 @@ public class Result {
         }
 
         excel.save(new File(String.format(
-                "excel/Fonderportföljer, %s.xls", getTimeStamp()
+                "excel/Fonderportföljer, %s.%s", getTimeStamp(), excel.getExtension()
         )));
     }
 
     private void addFundsTable(final Portfolio portfolio) {
-        final AsciiTable asciiTable = new AsciiTable();
-        final ExcelTable excelTable = excel.getTable("Fonder");
+        final Fingerprint inputs = new Fingerprint().add("Fonder").add(portfolio.getHash());
+        add("Fonder", getTable(inputs, () -> getFundsTable(portfolio)));
+    }
 
-        sb.append(getAsciiTitle(portfolio.name));
-        excelTable.addTitle(getExcelTitle(portfolio.name));
-        excelTable.addRow();
+    private Table getFundsTable(final Portfolio portfolio) {
+        final Table table = new Table(portfolio.name);
 
         final List<String> headersRow = getFundsHeadersRow(portfolio);
-        asciiTable.addRow(headersRow);
-        asciiTable.addHR();
-        excelTable.addRow(headersRow);
-        excelTable.addHR();
-
-        final List<List<String>> fundRows = getFundRows(portfolio);
-        asciiTable.addRows(fundRows);
-        excelTable.addRows(fundRows);
-
-        final List<String> sumRow = getSumRow(portfolio);
-        asciiTable.addHR();
-        asciiTable.addRow(sumRow);
-        excelTable.addHR();
-        excelTable.addRow(sumRow);
-
-        asciiTable.addRow();
-        excelTable.addRow();
-        sb.append(asciiTable.toString());
-        excelTable.autoSizeColumns(headersRow.size());
+        table.addHeaders(headersRow);
+        table.addHR();
+
+        table.addRows(getFundRows(portfolio));
+        table.addHR();
+        table.addRow(getSumRow(portfolio));
+        table.addRow();
+        return table;
     }
 
     private void addStatsTable(final Portfolio portfolio) {
-        final AsciiTable asciiTable = new AsciiTable();
-        final ExcelTable excelTable = excel.getTable("Statistik");
+        final Fingerprint inputs = new Fingerprint().add("Statistik").add(portfolio.getHash());
+        //The funds table above already has the ascii title.
+        add("Statistik", getTable(inputs, () -> getStatsTable(portfolio)), false);
+    }
 
-        excelTable.addTitle(getExcelTitle(portfolio.name));
-        excelTable.addRow();
+    private Table getStatsTable(final Portfolio portfolio) {
+        final Table table = new Table(portfolio.name);
 
         final List<String> headersRow = getStatsHeaderRow(portfolio);
-        asciiTable.addRow(headersRow);
-        asciiTable.addHR();
-        excelTable.addRow(headersRow);
-        excelTable.addHR();
+        table.addHeaders(headersRow);
+        table.addHR();
+
+        table.addRows(getStatsRows(portfolio));
+        table.addRow();
+        return table;
+    }
+
+    private Table getTable(final Fingerprint inputs, final Supplier<Table> builder) {
+        if (sectionCache == null) {
+            return builder.get();
+        }
+        try {
+            return sectionCache.get(inputs.toString(), builder);
+        }
+        catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
 
-        final List<List<String>> statRows = getStatsRows(portfolio);
-        asciiTable.addRows(statRows);
-        excelTable.addRows(statRows);
+    private void add(final String sheetName, final Table table) {
+        add(sheetName, table, true);
+    }
+
+    private void add(final String sheetName, final Table table, final boolean asciiTitle) {
+        //Sections added after the workbook is saved, like the timings, are only printed.
+        if (excel != null && !excel.isClosed()) {
+            final ExcelTable excelTable = excel.getTable(sheetName);
+            excelTable.addTitle(getExcelTitle(table.title));
+            excelTable.addRow();
+            excelTable.add(table);
+            excelTable.autoSizeColumns(table.numColumns());
+        }
+        try {
+            if (out != null) {
+                if (asciiTitle) {
+                    out.append(getAsciiTitle(table.title));
+                }
+                new AsciiTable().add(table).write(out);
+                if (out instanceof Flushable) {
+                    ((Flushable) out).flush();
+                }
+            }
+            for (final Export export : exports) {
+                export.write(sheetName, table);
+            }
+        }
+        catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
 
-        asciiTable.addRow();
-        excelTable.addRow();
-        sb.append(asciiTable.toString());
-        excelTable.autoSizeColumns(headersRow.size());
+    private void write(final String text) {
+        try {
+            out.append(text);
+        }
+        catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
     }
 
     private String getAsciiTitle(final String name) {
@@ -227,70 +610,69 @@ public class Result {
         return res;
     }
 
-    private List<List<String>> getFundRows(final Portfolio p) {
-        final List<List<String>> res = new ArrayList();
+    private List<List<Cell>> getFundRows(final Portfolio p) {
+        final List<List<Cell>> res = new ArrayList();
         p.funds.forEach(fd -> {
-            final List<String> row = new ArrayList();
+            final List<Cell> row = new ArrayList();
             final AvanzaFund fund = fd.avanza;
             row.addAll(Arrays.asList(
-                    fund.name,
-                    format(fd.percentage * 100),
-                    format(fd.getFee()),
-                    Integer.toString(fund.risk),
-                    fund.standardDeviation != null ? format(fund.standardDeviation) : MISSING,
-                    fund.sharpeRatio != null ? format(fund.sharpeRatio) : MISSING,
-                    String.join(", ", fund.categories),
-                    format(fd.avanza.getCountry(Country.SWEDEN, 0.0)),
-                    format(fd.avanza.getCountry(Country.USA, 0.0)),
-                    format(fd.avanza.getRegion(Region.ASIA, 0.0)),
-                    format(fd.avanza.getNonDevelopedMarkets())
+                    Cell.text(fund.name),
+                    percent(fd.percentage * 100),
+                    percent(fd.getFee()),
+                    Cell.number((double) fund.risk, 0),
+                    percent(fund.standardDeviation),
+                    format(fund.sharpeRatio),
+                    Cell.text(String.join(", ", fund.categories)),
+                    percent(fd.avanza.getCountry(Country.SWEDEN, 0.0)),
+                    percent(fd.avanza.getCountry(Country.USA, 0.0)),
+                    percent(fd.avanza.getRegion(Region.ASIA, 0.0)),
+                    percent(fd.avanza.getNonDevelopedMarkets())
             ));
             if (!p.companiesSize.isEmpty()) {
-                //TODO missing size info for now
-//                if (fd.morningstar != null) {
-//                    row.addAll(Arrays.asList(
-//                            format(fd.morningstar.largeCompanies),
-//                            format(fd.morningstar.middleCompanies),
-//                            format(fd.morningstar.smallCompanies)
-//                    ));
-//                }
-//                else {
-//                row.addAll(Arrays.asList("", "", ""));
-//                }
+                if (fd.morningstar != null) {
+                    row.addAll(Arrays.asList(
+                            percent(fd.morningstar.largeCompanies),
+                            percent(fd.morningstar.middleCompanies),
+                            percent(fd.morningstar.smallCompanies)
+                    ));
+                }
+                else {
+                    row.addAll(Arrays.asList(Cell.MISSING, Cell.MISSING, Cell.MISSING));
+                }
             }
             Headers.DEVELOPMENT_TITLES.forEach(key -> {
-                row.add(format(fund.getDevelopment(key, null)));
+                row.add(percent(fund.getDevelopment(key, null)));
             });
             res.add(row);
         });
         return res;
     }
 
-    private List<String> getSumRow(final Portfolio p) {
-        final List<String> res = new ArrayList();
+    private List<Cell> getSumRow(final Portfolio p) {
+        final List<Cell> res = new ArrayList();
         res.addAll(Arrays.asList(
-                "",
-                format(p.percentageSum),
-                format(p.avgFee),
+                Cell.EMPTY,
+                percent(p.percentageSum),
+                percent(p.avgFee),
                 format(p.risk),
-                format(p.sum.get(Headers.STANDARD_DEVIATION, null)),
+                percent(p.sum.get(Headers.STANDARD_DEVIATION, null)),
                 format(p.sum.get(Headers.SHARPE_RATIO, null)),
-                "",
-                format(p.countries.get(Country.SWEDEN.name, 0.0)),
-                format(p.countries.get(Country.USA.name, 0.0)),
-                format(p.regions.get(Region.ASIA.name, 0.0)),
-                format(p.nonDevelopedMarkets)
+                Cell.EMPTY,
+                percent(p.countries.get(Country.SWEDEN.name, 0.0)),
+                percent(p.countries.get(Country.USA.name, 0.0)),
+                percent(p.regions.get(Region.ASIA.name, 0.0)),
+                percent(p.nonDevelopedMarkets)
         ));
         if (!p.companiesSize.isEmpty()) {
             res.addAll(Arrays.asList(
-                    format(p.companiesSize.get(0).second()),
-                    format(p.companiesSize.get(1).second()),
-                    format(p.companiesSize.get(2).second())
+                    percent(p.companiesSize.get(0).second()),
+                    percent(p.companiesSize.get(1).second()),
+                    percent(p.companiesSize.get(2).second())
             ));
         }
         Headers.DEVELOPMENT_TITLES.forEach(title -> {
             if (p.developments.has(title)) {
-                res.add(format(p.developments.get(title, null)));
+                res.add(percent(p.developments.get(title, null)));
             }
         });
         return res;
@@ -312,8 +694,8 @@ public class Result {
         return res;
     }
 
-    private List<List<String>> getStatsRows(final Portfolio p) {
-        final List<List<String>> res = new ArrayList();
+    private List<List<Cell>> getStatsRows(final Portfolio p) {
+        final List<List<Cell>> res = new ArrayList();
         final int size = Math.min(
                 10,
                 max(
@@ -322,32 +704,22 @@ public class Result {
                 )
         );
         for (int i = 0; i < size; ++i) {
-            final List<String> row = new ArrayList();
-            row.addAll(Arrays.asList(
-                    i < p.holdings.size() ? p.holdings.get(i).first() : "",
-                    i < p.holdings.size() ? format(p.holdings.get(i).second()) : "",
-                    SPACE,
-                    i < p.sectors.size() ? p.sectors.get(i).first() : "",
-                    i < p.sectors.size() ? format(p.sectors.get(i).second()) : "",
-                    SPACE,
-                    i < p.countries.size() ? p.countries.get(i).first() : "",
-                    i < p.countries.size() ? format(p.countries.get(i).second()) : "",
-                    SPACE,
-                    i < p.regions.size() ? p.regions.get(i).first() : "",
-                    i < p.regions.size() ? format(p.regions.get(i).second()) : ""
-            ));
+            final List<Cell> row = new ArrayList();
+            addValue(row, p.holdings, i);
+            row.add(SPACE_CELL);
+            addValue(row, p.sectors, i);
+            row.add(SPACE_CELL);
+            addValue(row, p.countries, i);
+            row.add(SPACE_CELL);
+            addValue(row, p.regions, i);
             if (!p.companiesSize.isEmpty()) {
                 //Add blank row between global and swedish companies.
                 if (i == 3) {
-                    row.add(SPACE);
+                    row.add(SPACE_CELL);
                 }
                 else {
-                    final int j = i < 3 ? i : i - 1;
-                    row.addAll(Arrays.asList(
-                            SPACE,
-                            j < p.companiesSize.size() ? p.companiesSize.get(j).first() : "",
-                            j < p.companiesSize.size() ? format(p.companiesSize.get(j).second()) : ""
-                    ));
+                    row.add(SPACE_CELL);
+                    addValue(row, p.companiesSize, i < 3 ? i : i - 1);
                 }
             }
             res.add(row);
@@ -355,6 +727,17 @@ public class Result {
         return res;
     }
 
+    private void addValue(final List<Cell> row, final Values values, final int i) {
+        if (i < values.size()) {
+            row.add(Cell.text(values.get(i).first()));
+            row.add(percent(values.get(i).second()));
+        }
+        else {
+            row.add(Cell.EMPTY);
+            row.add(Cell.EMPTY);
+        }
+    }
+
     private List<String> getCompareHeadersRow(final Portfolio p1, final Portfolio p2) {
         final List<String> res = new ArrayList(Arrays.asList(
                 "", p1.name, p2.name, "Skillnad",
@@ -383,38 +766,84 @@ public class Result {
         );
     }
 
-    private List<List<String>> getCompareRows(final Portfolio p1, final Portfolio p2) {
-        final List<List<String>> res = new ArrayList();
+    private List<String> getCompareKeys(
+            final String title1, final String unit1,
+            final String title2, final String unit2) {
+        return Arrays.asList(
+                title1, FIRST + unit1, SECOND + unit1, DIFFERENCE + unit1,
+                SPACE,
+                title2, FIRST + unit2, SECOND + unit2, DIFFERENCE + unit2
+        );
+    }
+
+    private List<String> getCompareProjectionHeadersRow(final Portfolio p1, final Portfolio p2) {
+        return Arrays.asList(
+                String.format("Värde (%s + %s/mån)", amount(projection.capital), amount(projection.monthlyContribution)),
+                String.format("%s (kr)", p1.name),
+                String.format("%s (kr)", p2.name),
+                "Skillnad (kr)",
+                SPACE,
+                "Avgifter",
+                String.format("%s (kr)", p1.name),
+                String.format("%s (kr)", p2.name),
+                "Skillnad (kr)"
+        );
+    }
+
+    private List<List<Cell>> getCompareProjectionRows(final Portfolio p1, final Portfolio p2) {
+        final List<List<Cell>> res = new ArrayList();
+        final Projection.Factors factors = projection.compute(p1, p2);
+        for (int h = 0; h < projection.horizons.length; ++h) {
+            final Cell horizon = Cell.text(String.format("%d år", projection.horizons[h]));
+            final double value1 = factors.getValue(0, h), value2 = factors.getValue(1, h);
+            final double drag1 = factors.getFeeDrag(0, h), drag2 = factors.getFeeDrag(1, h);
+            res.add(Arrays.asList(
+                    horizon,
+                    amount(value1),
+                    amount(value2),
+                    amount(value2 - value1),
+                    SPACE_CELL,
+                    horizon,
+                    amount(drag1),
+                    amount(drag2),
+                    amount(drag2 - drag1)
+            ));
+        }
+        return res;
+    }
+
+    private List<List<Cell>> getCompareRows(final Portfolio p1, final Portfolio p2) {
+        final List<List<Cell>> res = new ArrayList();
         res.add(new ArrayList(Arrays.asList(
-                "# Fonder",
-                Integer.toString(p1.funds.size()),
-                Integer.toString(p2.funds.size()),
-                Integer.toString(p2.funds.size() - p1.funds.size()),
-                SPACE
+                Cell.text("# Fonder"),
+                Cell.number((double) p1.funds.size(), 0),
+                Cell.number((double) p2.funds.size(), 0),
+                Cell.number((double) (p2.funds.size() - p1.funds.size()), 0),
+                SPACE_CELL
         )));
         addRow(
-                res, true, 1, Headers.PERCENTAGE, p1.percentageSum, p2.percentageSum
+                res, true, 1, Headers.PERCENTAGE, p1.percentageSum, p2.percentageSum, true
         );
         addRow(
-                res, true, 2, Headers.FEE, p1.avgFee, p2.avgFee
+                res, true, 2, Headers.FEE, p1.avgFee, p2.avgFee, true
         );
         addRow(
-                res, true, 3, Headers.RISK, p1.risk, p2.risk
+                res, true, 3, Headers.RISK, p1.risk, p2.risk, false
         );
-        addRow(res, true, 4, Headers.STANDARD_DEVIATION, p1.sum.get(Headers.STANDARD_DEVIATION, null), p2.sum.get(Headers.STANDARD_DEVIATION, null));
-        addRow(res, true, 5, Headers.SHARPE_RATIO, p1.sum.get(Headers.SHARPE_RATIO, null), p2.sum.get(Headers.SHARPE_RATIO, null));
-        addRow(res, true, 6, Headers.NON_DEVELOPED_MARKETS, p1.nonDevelopedMarkets, p2.nonDevelopedMarkets);
+        addRow(res, true, 4, Headers.STANDARD_DEVIATION, p1.sum.get(Headers.STANDARD_DEVIATION, null), p2.sum.get(Headers.STANDARD_DEVIATION, null), true);
+        addRow(res, true, 5, Headers.SHARPE_RATIO, p1.sum.get(Headers.SHARPE_RATIO, null), p2.sum.get(Headers.SHARPE_RATIO, null), false);
+        addRow(res, true, 6, Headers.NON_DEVELOPED_MARKETS, p1.nonDevelopedMarkets, p2.nonDevelopedMarkets, true);
         compareDevelopments(res, false, p1, p2);
         return res;
     }
 
-    private List<List<String>> getRankingsRows(final Rankings rankings) {
-        final List<List<String>> res = new ArrayList();
+    private List<List<Cell>> getRankingsRows(final Rankings rankings) {
+        final List<List<Cell>> res = new ArrayList();
         rankings.funds.forEach(fr -> {
-            final List<String> row = new ArrayList();
-            row.add(fr.avanza.name);
+            final List<Cell> row = new ArrayList();
+            row.add(Cell.text(fr.avanza.name));
             fr.values.forEach(p -> {
-                row.add(String.format("%d (%s)", p.first(), format(p.second())));
+                row.add(Cell.rank(p.first(), p.second()));
             });
             row.add(format(fr.mean));
             res.add(row);
@@ -422,6 +851,24 @@ public class Result {
         return res;
     }
 
+    private List<List<Cell>> getMonteCarloRows(final MonteCarlo monteCarlo) {
+        final List<List<Cell>> res = new ArrayList();
+        for (int i = 0; i < PERCENTILES.length; ++i) {
+            //Low outcomes pair with large drawdowns.
+            final double percentile = PERCENTILES[i];
+            res.add(Arrays.asList(
+                    Cell.number(percentile, 0),
+                    format(monteCarlo.percentile(percentile)),
+                    percent(monteCarlo.annualReturn(percentile)),
+                    percent(monteCarlo.drawdownPercentile(100 - percentile)),
+                    SPACE_CELL,
+                    Cell.text(String.format("> %.0f", DRAWDOWNS[i])),
+                    percent(monteCarlo.drawdownProbability(DRAWDOWNS[i]))
+            ));
+        }
+        return res;
+    }
+
     private List<String> getRankingsHeadersRow(final Rankings rankings) {
         final List<String> res = new ArrayList();
         res.add("");
@@ -431,7 +878,7 @@ public class Result {
     }
 
     private void compareDevelopments(
-            final List<List<String>> rows,
+            final List<List<Cell>> rows,
             final boolean first,
             final Portfolio p1,
             final Portfolio p2) {
@@ -439,13 +886,14 @@ public class Result {
             final String title = Headers.DEVELOPMENT_TITLES.get(i);
             addRow(rows, first, i, title,
                     p1.developments.get(title, null),
-                    p2.developments.get(title, null)
+                    p2.developments.get(title, null),
+                    true
             );
         }
     }
 
     private void compareValues(
-            final List<List<String>> rows,
+            final List<List<Cell>> rows,
             final boolean first,
             final Values values1,
             final Values values2) {
@@ -460,40 +908,58 @@ public class Result {
         for (int i = 0; i < comparison.size() && i < 10; ++i) {
             final String key = comparison.get(i);
             addRow(
-                    rows, first, i, key, comparison.first(key), comparison.second(key)
+                    rows, first, i, key, comparison.first(key), comparison.second(key), true
             );
         }
     }
 
     final void addRow(
-            final List<List<String>> rows,
+            final List<List<Cell>> rows,
             final boolean first,
             final int i,
             final String title,
             final Double val1,
-            final Double val2) {
+            final Double val2,
+            final boolean isPercent) {
         if (i >= rows.size()) {
             rows.add(new ArrayList());
             if (!first) {
-                rows.get(i).addAll(Arrays.asList("", "", "", "", SPACE));
+                rows.get(i).addAll(Arrays.asList(Cell.EMPTY, Cell.EMPTY, Cell.EMPTY, Cell.EMPTY, SPACE_CELL));
             }
         }
         rows.get(i).addAll(Arrays.asList(
-                title,
-                format(val1),
-                format(val2),
-                val1 != null && val2 != null ? format(val2 - val1) : MISSING
+                Cell.text(title),
+                isPercent ? percent(val1) : format(val1),
+                isPercent ? percent(val2) : format(val2),
+                val1 != null && val2 != null
+                        ? (isPercent ? percent(val2 - val1) : format(val2 - val1))
+                        : Cell.MISSING
         ));
         if (first) {
-            rows.get(i).add(SPACE);
+            rows.get(i).add(SPACE_CELL);
         }
     }
 
-    private String format(final Double value) {
-        if (value == null) {
-            return MISSING;
+    //Largest over or under weight as "name (weight)".
+    private Cell formatActiveWeight(final List<Pair<String, Double>> activeWeights, final boolean over) {
+        for (final Pair<String, Double> p : activeWeights) {
+            if (over ? p.second() > 0 : p.second() < 0) {
+                return Cell.text(String.format("%s (%s)", p.first(), percent(p.second())));
+            }
         }
-        return String.format("%.2f", Math.round(value * 100.0) / 100.0);
+        return Cell.MISSING;
+    }
+
+    private Cell amount(final double value) {
+        return Cell.number(value, 0);
+    }
+
+    private Cell percent(final Double value) {
+        return Cell.percent(value);
+    }
+
+    private Cell format(final Double value) {
+        return Cell.number(value);
     }
 
     private int max(final int value, final int... values) {
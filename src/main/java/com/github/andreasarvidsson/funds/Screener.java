@@ -0,0 +1,260 @@
+package com.github.andreasarvidsson.funds;
+
+import com.github.andreasarvidsson.funds.Country.Region;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar sorted indexes over a fund universe. Queries are conjunctions of
+ * ranges, answered by intersecting the matching index ranges.
+ *
+ * @author Andreas Arvidsson
+ */
+public class Screener {
+
+    private final List<AvanzaFund> funds;
+    private final Map<String, Column> columns = new HashMap();
+
+    public Screener(final Collection<AvanzaFund> funds) {
+        this.funds = new ArrayList(funds);
+        final int size = this.funds.size();
+        final Map<String, double[]> values = new HashMap();
+        for (int i = 0; i < size; ++i) {
+            final AvanzaFund fund = this.funds.get(i);
+            set(values, Headers.FEE, i, fund.productFee);
+            set(values, Headers.RISK, i, (double) fund.risk);
+            set(values, Headers.SHARPE_RATIO, i, fund.sharpeRatio);
+            set(values, Headers.STANDARD_DEVIATION, i, fund.standardDeviation);
+            set(values, Headers.NON_DEVELOPED_MARKETS, i, fund.getNonDevelopedMarkets());
+            for (final String key : Headers.DEVELOPMENT_TITLES) {
+                set(values, key, i, fund.getDevelopment(key, null));
+            }
+            //Missing countries and regions means no exposure, not unknown.
+            for (final Country country : Country.values()) {
+                set(values, getKey(country), i, fund.getCountry(country, 0.0));
+            }
+            for (final Region region : Region.values()) {
+                set(values, getKey(region), i, fund.getRegion(region, 0.0));
+            }
+        }
+        values.forEach((key, column) -> {
+            columns.put(key, new Column(column));
+        });
+    }
+
+    /**
+     * Screener over every fund in the file cache.
+     */
+    public static Screener fromCache() throws IOException {
+        return new Screener(Avanza.getUniverse());
+    }
+
+    /**
+     * Column of a country. Countries and regions share names, e.g. Japan, so
+     * their keys are prefixed.
+     */
+    public static String getKey(final Country country) {
+        return String.format("%s: %s", Headers.LAND, country.name);
+    }
+
+    public static String getKey(final Region region) {
+        return String.format("%s: %s", Headers.REGION, region.name);
+    }
+
+    public Query query() {
+        return new Query();
+    }
+
+    public int size() {
+        return funds.size();
+    }
+
+    private void set(final Map<String, double[]> values, final String key, final int index, final Double value) {
+        if (!values.containsKey(key)) {
+            final double[] column = new double[funds.size()];
+            Arrays.fill(column, Double.NaN);
+            values.put(key, column);
+        }
+        if (value != null) {
+            values.get(key)[index] = value;
+        }
+    }
+
+    private Column getColumn(final String key) {
+        if (!columns.containsKey(key)) {
+            throw new IllegalArgumentException(String.format("Can't screen on '%s'", key));
+        }
+        return columns.get(key);
+    }
+
+    public class Query {
+
+        private final List<Range> ranges = new ArrayList();
+
+        private Query() {
+        }
+
+        public Query lessThan(final String key, final double value) {
+            return between(key, Double.NEGATIVE_INFINITY, true, value, false);
+        }
+
+        public Query atMost(final String key, final double value) {
+            return between(key, Double.NEGATIVE_INFINITY, true, value, true);
+        }
+
+        public Query greaterThan(final String key, final double value) {
+            return between(key, value, false, Double.POSITIVE_INFINITY, true);
+        }
+
+        public Query atLeast(final String key, final double value) {
+            return between(key, value, true, Double.POSITIVE_INFINITY, true);
+        }
+
+        public Query between(final String key, final double min, final double max) {
+            return between(key, min, true, max, true);
+        }
+
+        public Query between(
+                final String key,
+                final double min, final boolean minInclusive,
+                final double max, final boolean maxInclusive) {
+            final Column column = getColumn(key);
+            ranges.add(new Range(
+                    column,
+                    minInclusive ? column.lowerBound(min) : column.upperBound(min),
+                    maxInclusive ? column.upperBound(max) : column.lowerBound(max)
+            ));
+            return this;
+        }
+
+        public List<AvanzaFund> execute() {
+            final List<AvanzaFund> res = new ArrayList();
+            if (ranges.isEmpty()) {
+                res.addAll(funds);
+                return res;
+            }
+            //Start with the most selective range to keep the bitsets sparse.
+            Collections.sort(ranges, (a, b) -> Integer.compare(a.size(), b.size()));
+            final BitSet result = ranges.get(0).toBitSet();
+            for (int i = 1; i < ranges.size() && !result.isEmpty(); ++i) {
+                result.and(ranges.get(i).toBitSet());
+            }
+            for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+                res.add(funds.get(i));
+            }
+            return res;
+        }
+
+        public List<SelectedFund> toSelectedFunds() {
+            final List<SelectedFund> res = new ArrayList();
+            execute().forEach(fund -> {
+                res.add(new SelectedFund(fund.name));
+            });
+            return res;
+        }
+
+        public Rankings toRankings(final String name) throws IOException {
+            return new Rankings(name, toSelectedFunds());
+        }
+
+        /**
+         * Portfolio with equal weights for all matching funds.
+         */
+        public Portfolio toPortfolio(final String name) throws IOException {
+            final List<AvanzaFund> matches = execute();
+            final List<SelectedFund> selectedFunds = new ArrayList();
+            matches.forEach(fund -> {
+                selectedFunds.add(new SelectedFund(100.0 / matches.size(), fund.name));
+            });
+            return new Portfolio(name, selectedFunds);
+        }
+
+    }
+
+    private static class Column {
+
+        //Fund indexes ordered by value. Missing values are left out.
+        private final int[] order;
+        private final double[] sorted;
+
+        private Column(final double[] values) {
+            final List<Integer> indexes = new ArrayList();
+            for (int i = 0; i < values.length; ++i) {
+                if (!Double.isNaN(values[i])) {
+                    indexes.add(i);
+                }
+            }
+            Collections.sort(indexes, (a, b) -> Double.compare(values[a], values[b]));
+            order = new int[indexes.size()];
+            sorted = new double[indexes.size()];
+            for (int i = 0; i < order.length; ++i) {
+                order[i] = indexes.get(i);
+                sorted[i] = values[order[i]];
+            }
+        }
+
+        //First position with a value >= the given value.
+        private int lowerBound(final double value) {
+            int lo = 0, hi = sorted.length;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (sorted[mid] < value) {
+                    lo = mid + 1;
+                }
+                else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        //First position with a value > the given value.
+        private int upperBound(final double value) {
+            int lo = 0, hi = sorted.length;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (sorted[mid] <= value) {
+                    lo = mid + 1;
+                }
+                else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+    }
+
+    private static class Range {
+
+        private final Column column;
+        private final int from, to;
+
+        private Range(final Column column, final int from, final int to) {
+            this.column = column;
+            this.from = from;
+            this.to = Math.max(from, to);
+        }
+
+        private int size() {
+            return to - from;
+        }
+
+        private BitSet toBitSet() {
+            final BitSet res = new BitSet();
+            for (int i = from; i < to; ++i) {
+                res.set(column.order[i]);
+            }
+            return res;
+        }
+
+    }
+
+}
@@ -0,0 +1,283 @@
+package com.github.andreasarvidsson.funds;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.andreasarvidsson.funds.ReportDefinition.FundDefinition;
+import com.github.andreasarvidsson.funds.ReportDefinition.PortfolioDefinition;
+import com.github.andreasarvidsson.funds.util.Export;
+import com.github.andreasarvidsson.funds.util.JsonLinesExport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Long running evaluation server. Fund snapshots and look-through exposures
+ * stay in memory between requests. Morningstar company sizes are never
+ * fetched for a request.
+ *
+ * POST /evaluate {"name": "P", "lookThrough": false, "funds": [{"name": "...", "percentage": 60, "fee": 0.2}]}
+ * POST /compare {"portfolios": [{...}, {...}]}
+ * POST /rank {"name": "R", "funds": [{"name": "...", "fee": 0.2}]}
+ * GET /metrics
+ *
+ * Responses are the section records of the JSON Lines export. Fund names
+ * are resolved against the funds known locally, unknown names are rejected
+ * before anything is loaded.
+ *
+ * @author Andreas Arvidsson
+ */
+public class Server {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int DEFAULT_PORT = 8080;
+    private static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int QUEUE_SIZE = 1024;
+    private static final long REFRESH_MILLIS = 12 * 3600 * 1000;
+    private static final double REFRESH_JITTER = 0.1;
+    private static final int REFRESH_THREADS = 4;
+
+    private final HttpServer server;
+    private final FundRefresher refresher;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Metrics> metrics = new LinkedHashMap();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final long t0 = System.currentTimeMillis();
+
+    static {
+        //Small responses are otherwise held back by Nagle's algorithm.
+        System.getProperties().putIfAbsent("sun.net.httpserver.nodelay", "true");
+    }
+
+    public interface Handler {
+
+        void handle(final Request request, final Export export) throws IOException;
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        //Fund data would otherwise never change while the server is up.
+        final FundRefresher refresher = new FundRefresher(REFRESH_MILLIS, REFRESH_JITTER, REFRESH_THREADS);
+        refresher.start();
+        new Server(port, NUM_THREADS, QUEUE_SIZE, refresher).start();
+        System.out.printf("Listening on port %d\n", port);
+    }
+
+    /**
+     * When all workers are busy and the queue is full the accepting thread
+     * runs the request itself, which stops it from accepting more.
+     */
+    public Server(final int port, final int numThreads, final int queueSize) throws IOException {
+        this(port, numThreads, queueSize, null);
+    }
+
+    /**
+     * @param refresher Source of the covariance matrix, may be null in which
+     * case the weighted standard deviation is used.
+     */
+    public Server(
+            final int port,
+            final int numThreads,
+            final int queueSize,
+            final FundRefresher refresher) throws IOException {
+        this.refresher = refresher;
+        server = HttpServer.create(new InetSocketAddress(port), queueSize);
+        executor = new ThreadPoolExecutor(
+                numThreads, numThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue(queueSize),
+                r -> {
+                    final Thread thread = new Thread(r, "server");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+        server.setExecutor(executor);
+        addEndpoint("/evaluate", (request, export) -> {
+            new Result(export).add(getPortfolio(resolve(request, true)));
+        });
+        addEndpoint("/compare", (request, export) -> {
+            if (request.portfolios == null || request.portfolios.size() != 2) {
+                throw new IllegalArgumentException("Expected two portfolios");
+            }
+            final PortfolioDefinition first = resolve(request.portfolios.get(0), true);
+            final PortfolioDefinition second = resolve(request.portfolios.get(1), true);
+            new Result(export).compare(getPortfolio(first), getPortfolio(second));
+        });
+        addEndpoint("/rank", (request, export) -> {
+            new Result(export).add(resolve(request, false).toRankings(Collections.emptyMap()));
+        });
+        server.createContext("/metrics", exchange -> {
+            try {
+                send(exchange, 200, "application/json", MAPPER.writeValueAsString(getMetrics()));
+            }
+            finally {
+                exchange.close();
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public Map<String, Object> getMetrics() {
+        final Map<String, Object> res = new LinkedHashMap();
+        final double uptime = (System.currentTimeMillis() - t0) * 0.001;
+        long requests = 0;
+        for (final Map.Entry<String, Metrics> e : metrics.entrySet()) {
+            res.put(e.getKey(), e.getValue().toMap());
+            requests += e.getValue().requests.sum();
+        }
+        res.put("inFlight", inFlight.get());
+        res.put("queued", executor.getQueue().size());
+        res.put("uptime", uptime);
+        res.put("requestsPerSecond", uptime > 0 ? requests / uptime : 0);
+        return res;
+    }
+
+    private void addEndpoint(final String path, final Handler handler) {
+        final Metrics m = new Metrics();
+        metrics.put(path, m);
+        server.createContext(path, exchange -> {
+            final long start = System.nanoTime();
+            inFlight.incrementAndGet();
+            int status = 200;
+            try {
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    status = 405;
+                    sendError(exchange, status, "Use POST");
+                    return;
+                }
+                final Request request = MAPPER.readValue(exchange.getRequestBody(), Request.class);
+                final StringWriter writer = new StringWriter();
+                try (final Export export = new JsonLinesExport(writer)) {
+                    handler.handle(request, export);
+                }
+                send(exchange, status, "application/x-ndjson", writer.toString());
+            }
+            catch (final JsonProcessingException | IllegalArgumentException | NoSuchElementException e) {
+                status = 400;
+                sendError(exchange, status, e.getMessage());
+            }
+            catch (final IOException | RuntimeException e) {
+                status = 500;
+                sendError(exchange, status, e.toString());
+            }
+            finally {
+                exchange.close();
+                inFlight.decrementAndGet();
+                m.add(status, System.nanoTime() - start);
+            }
+        });
+    }
+
+    //Client input must not add funds, searches or files to the caches.
+    private static PortfolioDefinition resolve(
+            final PortfolioDefinition pd,
+            final boolean requirePercentages) throws IOException {
+        pd.validate(requirePercentages);
+        for (final FundDefinition fund : pd.funds) {
+            final String name = Avanza.getKnownName(fund.name);
+            if (name == null) {
+                throw new IllegalArgumentException(String.format("Unknown fund '%s'", fund.name));
+            }
+            fund.name = name;
+        }
+        return pd;
+    }
+
+    //Only reads the shared matrix, funds it doesn't cover keep the weighted standard deviation.
+    private Portfolio getPortfolio(final PortfolioDefinition pd) throws IOException {
+        final Portfolio portfolio = pd.toPortfolio(Collections.emptyMap());
+        final Covariance covariance = refresher != null ? refresher.getCovariance() : null;
+        if (covariance != null && covariance.contains(portfolio)) {
+            portfolio.applyCovariance(covariance);
+        }
+        return portfolio;
+    }
+
+    private static void sendError(final HttpExchange exchange, final int status, final String message) {
+        try {
+            final Map<String, String> error = new LinkedHashMap();
+            error.put("error", message);
+            send(exchange, status, "application/json", MAPPER.writeValueAsString(error));
+        }
+        catch (final IOException e) {
+            //The client is gone.
+        }
+    }
+
+    private static void send(
+            final HttpExchange exchange,
+            final int status,
+            final String contentType,
+            final String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (final OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Request extends PortfolioDefinition {
+
+        public List<PortfolioDefinition> portfolios;
+
+    }
+
+    private static class Metrics {
+
+        final LongAdder requests = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        void add(final int status, final long time) {
+            requests.increment();
+            if (status != 200) {
+                errors.increment();
+            }
+            nanos.add(time);
+            maxNanos.accumulateAndGet(time, Math::max);
+        }
+
+        Map<String, Object> toMap() {
+            final Map<String, Object> res = new LinkedHashMap();
+            final long n = requests.sum();
+            res.put("requests", n);
+            res.put("errors", errors.sum());
+            res.put("avgMs", n > 0 ? nanos.sum() * 1e-6 / n : 0);
+            res.put("maxMs", maxNanos.get() * 1e-6);
+            return res;
+        }
+
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.github.andreasarvidsson.funds;
+
+import com.github.andreasarvidsson.funds.Country.Market;
+import com.github.andreasarvidsson.funds.Country.Region;
+import com.github.andreasarvidsson.funds.util.Pair;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Estimated change in percent of every portfolio under every scenario.
+ * Scenarios and portfolios are compiled to dense vectors over countries and
+ * sectors so the evaluation is a single matrix product.
+ *
+ * Every (sector, country) cell of a portfolio gets the compounded shock
+ * (1 + country) × (1 + sector) - 1. Sector and country exposures are assumed
+ * to be independent, as in ExposureCube, so the sum over all cells factors
+ * into one product per dimension and no exposure is counted twice.
+ *
+ * @author Andreas Arvidsson
+ */
+public class StressTest {
+
+    private static final int NUM_COUNTRIES = Country.values().length;
+    private static final int PORTFOLIOS_PER_TASK = 64;
+
+    public final List<Scenario> scenarios;
+    public final List<Portfolio> portfolios;
+    //Portfolio major, scenarios are contiguous.
+    private final double[] changes;
+
+    public StressTest(final List<Scenario> scenarios, final Portfolio... portfolios) {
+        this(scenarios, Arrays.asList(portfolios));
+    }
+
+    public StressTest(final List<Scenario> scenarios, final List<Portfolio> portfolios) {
+        this.scenarios = new ArrayList(scenarios);
+        this.portfolios = new ArrayList(portfolios);
+        final int numScenarios = scenarios.size();
+        final int numPortfolios = portfolios.size();
+        for (final Portfolio portfolio : portfolios) {
+            portfolio.sectors.forEach(p -> ExposureCube.getSectorId(p.first()));
+        }
+        //Scenarios are user input and must not add sectors, a misspelled one would never match.
+        for (final Scenario scenario : scenarios) {
+            for (final String sector : scenario.sectors.keySet()) {
+                if (ExposureCube.findSectorId(sector) == -1) {
+                    throw new IllegalArgumentException(String.format(
+                            "Unknown sector '%s' in scenario '%s'", sector, scenario.name
+                    ));
+                }
+            }
+        }
+        final int size = NUM_COUNTRIES + ExposureCube.getNumSectors();
+
+        final double[] shocks = new double[numScenarios * size];
+        for (int i = 0; i < numScenarios; ++i) {
+            scenarios.get(i).compile(shocks, i * size);
+        }
+
+        changes = new double[numPortfolios * numScenarios];
+        final int numTasks = (numPortfolios + PORTFOLIOS_PER_TASK - 1) / PORTFOLIOS_PER_TASK;
+        IntStream.range(0, numTasks).parallel().forEach(task -> {
+            final double[] exposure = new double[size];
+            final int end = Math.min(numPortfolios, (task + 1) * PORTFOLIOS_PER_TASK);
+            for (int p = task * PORTFOLIOS_PER_TASK; p < end; ++p) {
+                final double covered = compile(portfolios.get(p), exposure);
+                final int offset = p * numScenarios;
+                for (int s = 0; s < numScenarios; ++s) {
+                    final int shockOffset = s * size;
+                    double geographic = 0, sector = 0;
+                    for (int k = 0; k < NUM_COUNTRIES; ++k) {
+                        geographic += exposure[k] * shocks[shockOffset + k];
+                    }
+                    for (int k = NUM_COUNTRIES; k < size; ++k) {
+                        sector += exposure[k] * shocks[shockOffset + k];
+                    }
+                    //Sector exposures sum to one, country exposures to the covered part.
+                    changes[offset + s] = geographic + covered * sector + geographic * sector * 0.01;
+                }
+            }
+        });
+    }
+
+    /**
+     * Estimated change in percent, e.g. -12.5.
+     */
+    public double getChange(final int portfolio, final int scenario) {
+        return changes[portfolio * scenarios.size() + scenario];
+    }
+
+    public double getChange(final Portfolio portfolio, final Scenario scenario) {
+        final int portfolioIndex = portfolios.indexOf(portfolio);
+        if (portfolioIndex == -1) {
+            throw new IllegalArgumentException(String.format("Unknown portfolio '%s'", portfolio.name));
+        }
+        final int scenarioIndex = scenarios.indexOf(scenario);
+        if (scenarioIndex == -1) {
+            throw new IllegalArgumentException(String.format("Unknown scenario '%s'", scenario.name));
+        }
+        return getChange(portfolioIndex, scenarioIndex);
+    }
+
+    //Country exposures as fractions so the product with shocks in percent is
+    //in percent. Sector exposures normalized to sum to one. Returns the sum of
+    //the country exposures.
+    private static double compile(final Portfolio portfolio, final double[] exposure) {
+        Arrays.fill(exposure, 0);
+        double covered = 0;
+        for (final Pair<String, Double> p : portfolio.countries) {
+            exposure[Country.fromString(p.first()).ordinal()] += p.second() * 0.01;
+            covered += p.second() * 0.01;
+        }
+        double sectorSum = 0;
+        for (final Pair<String, Double> p : portfolio.sectors) {
+            sectorSum += p.second();
+        }
+        if (sectorSum > 0) {
+            for (final Pair<String, Double> p : portfolio.sectors) {
+                exposure[NUM_COUNTRIES + ExposureCube.getSectorId(p.first())] += p.second() / sectorSum;
+            }
+        }
+        return covered;
+    }
+
+    public static class Scenario {
+
+        public final String name;
+        private final Map<Country, Double> countries = new EnumMap(Country.class);
+        private final Map<Region, Double> regions = new EnumMap(Region.class);
+        private final Map<Market, Double> markets = new EnumMap(Market.class);
+        private final Map<String, Double> sectors = new HashMap();
+
+        public Scenario(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * Shocks in percent, e.g. -20. The most specific of country, region
+         * and market applies. Sector shocks compound with it per cell.
+         */
+        public Scenario country(final String country, final double shock) {
+            countries.put(Country.fromString(country), shock);
+            return this;
+        }
+
+        public Scenario region(final Region region, final double shock) {
+            regions.put(region, shock);
+            return this;
+        }
+
+        public Scenario market(final Market market, final double shock) {
+            markets.put(market, shock);
+            return this;
+        }
+
+        public Scenario sector(final String sector, final double shock) {
+            sectors.put(sector, shock);
+            return this;
+        }
+
+        private void compile(final double[] shocks, final int offset) {
+            for (final Country country : Country.values()) {
+                Double shock = countries.get(country);
+                if (shock == null) {
+                    shock = regions.get(country.region);
+                }
+                if (shock == null) {
+                    shock = markets.get(country.market);
+                }
+                shocks[offset + country.ordinal()] = shock != null ? shock : 0;
+            }
+            sectors.forEach((sector, shock) -> {
+                shocks[offset + NUM_COUNTRIES + ExposureCube.findSectorId(sector)] = shock;
+            });
+        }
+
+    }
+
+}
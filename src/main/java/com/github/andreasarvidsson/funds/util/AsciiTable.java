@@ -1,5 +1,7 @@
 package com.github.andreasarvidsson.funds.util;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -11,6 +13,9 @@ import java.util.List;
 public class AsciiTable {
 
     private final static int CELL_SPACING = 3;
+    private final static String LINE_SEPARATOR = System.lineSeparator();
+    private final static String SPACES = repeat(' ', 256);
+    private final static String DASHES = repeat('-', 256);
     private final List<Row> rows = new ArrayList();
     private final List<Integer> colWidths = new ArrayList();
 
@@ -48,6 +53,22 @@ public class AsciiTable {
         return this;
     }
 
+    public AsciiTable add(final Table table) {
+        table.getRows().forEach(row -> {
+            if (row.hr) {
+                addHR();
+            }
+            else {
+                final List<String> cells = new ArrayList(row.cells.size());
+                row.cells.forEach(cell -> {
+                    cells.add(cell.toString());
+                });
+                addRow(cells);
+            }
+        });
+        return this;
+    }
+
     public AsciiTable addHR() {
         rows.add(new Row(true));
         return this;
@@ -64,31 +85,44 @@ public class AsciiTable {
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder();
-        rows.forEach(row -> {
+        try {
+            write(sb);
+        }
+        catch (final IOException ex) {
+            //StringBuilder doesn't throw.
+            throw new UncheckedIOException(ex);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Renders row by row to the output, e.g. a Writer, without building the
+     * whole table as a string first.
+     */
+    public void write(final Appendable out) throws IOException {
+        for (final Row row : rows) {
             if (row.hr) {
-                addHR(sb);
+                writeHR(out);
             }
             else if (row.cells != null) {
                 for (int i = 0; i < row.cells.size(); i++) {
-                    addCell(sb, row.cells.get(i), getColWidth(i, row.cells.size()));
+                    writeCell(out, row.cells.get(i), getColWidth(i, row.cells.size()));
                 }
-                sb.append(System.lineSeparator());
+                out.append(LINE_SEPARATOR);
             }
-        });
-        return sb.toString();
+        }
     }
 
-    private void addCell(final StringBuilder sb, final String cell, final int colWidth) {
-        sb.append(cell);
-        pad(sb, colWidth - cell.length(), ' ');
+    private void writeCell(final Appendable out, final String cell, final int colWidth) throws IOException {
+        out.append(cell);
+        pad(out, colWidth - cell.length(), SPACES);
     }
 
-    private void addHR(final StringBuilder sb) {
+    private void writeHR(final Appendable out) throws IOException {
         for (int i = 0; i < colWidths.size(); i++) {
-            final int colWidth = getColWidth(i, colWidths.size());
-            pad(sb, colWidth, '-');
+            pad(out, getColWidth(i, colWidths.size()), DASHES);
         }
-        sb.append(System.lineSeparator());
+        out.append(LINE_SEPARATOR);
     }
 
     private void updateColWidths(int colIndex, final List<String> cells) {
@@ -109,13 +143,21 @@ public class AsciiTable {
         return colWidths.get(index) + (index < size - 1 ? CELL_SPACING : 0);
     }
 
-    private void pad(final StringBuilder sb, int colWidth, final char character) {
+    //Appends slices of a prefilled string instead of one char at a time.
+    private void pad(final Appendable out, int colWidth, final String characters) throws IOException {
         while (colWidth > 0) {
-            sb.append(character);
-            --colWidth;
+            final int length = Math.min(colWidth, characters.length());
+            out.append(characters, 0, length);
+            colWidth -= length;
         }
     }
 
+    private static String repeat(final char character, final int count) {
+        final char[] res = new char[count];
+        Arrays.fill(res, character);
+        return new String(res);
+    }
+
     private class Row {
 
         public final List<String> cells;
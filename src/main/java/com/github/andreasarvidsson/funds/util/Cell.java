@@ -0,0 +1,133 @@
+package com.github.andreasarvidsson.funds.util;
+
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Typed table cell. Numbers keep their value so Excel gets numeric cells,
+ * and the text is formatted once when first needed.
+ *
+ * @author Andreas Arvidsson
+ */
+public class Cell {
+
+    public static enum Type {
+        TEXT,
+        NUMBER,
+        //Value in percent, e.g. 12.5 for 12.5%.
+        PERCENT,
+        //Rank with the value in parentheses, e.g. 3 (12.50). Exports get both as numbers.
+        RANK,
+        MISSING
+    }
+
+    public static final Cell MISSING = new Cell(Type.MISSING, "-", 0, 0);
+    public static final Cell EMPTY = new Cell(Type.TEXT, "", 0, 0);
+    private static final int DECIMALS = 2;
+    private static final long[] SCALES = {1, 10, 100, 1000, 10000, 100000, 1000000};
+    private static final char DECIMAL_SEPARATOR = DecimalFormatSymbols.getInstance(
+            Locale.getDefault(Locale.Category.FORMAT)
+    ).getDecimalSeparator();
+
+    public final Type type;
+    public final double value;
+    public final int decimals;
+    public final int rank;
+    private String text;
+
+    private Cell(final Type type, final String text, final double value, final int decimals) {
+        this(type, text, value, decimals, 0);
+    }
+
+    private Cell(final Type type, final String text, final double value, final int decimals, final int rank) {
+        this.type = type;
+        this.text = text;
+        this.value = value;
+        this.decimals = decimals;
+        this.rank = rank;
+    }
+
+    public static Cell text(final String text) {
+        return text.isEmpty() ? EMPTY : new Cell(Type.TEXT, text, 0, 0);
+    }
+
+    public static List<Cell> texts(final List<String> texts) {
+        final List<Cell> res = new ArrayList(texts.size());
+        texts.forEach(text -> {
+            res.add(text(text));
+        });
+        return res;
+    }
+
+    public static Cell number(final Double value) {
+        return number(value, DECIMALS);
+    }
+
+    public static Cell number(final Double value, final int decimals) {
+        return value != null ? new Cell(Type.NUMBER, null, value, decimals) : MISSING;
+    }
+
+    public static Cell percent(final Double value) {
+        return value != null ? new Cell(Type.PERCENT, null, value, DECIMALS) : MISSING;
+    }
+
+    /**
+     * Missing values are NaN.
+     */
+    public static Cell rank(final int rank, final Double value) {
+        return new Cell(
+                Type.RANK,
+                String.format("%d (%s)", rank, value != null ? format(value, DECIMALS) : MISSING.toString()),
+                value != null ? value : Double.NaN,
+                DECIMALS,
+                rank
+        );
+    }
+
+    public boolean isNumeric() {
+        return type == Type.NUMBER || type == Type.PERCENT;
+    }
+
+    @Override
+    public String toString() {
+        if (text == null) {
+            text = format(value, decimals);
+        }
+        return text;
+    }
+
+    /**
+     * Same output as String.format("%.2f") for two decimals, without the
+     * overhead of parsing a format string and creating a Formatter per call.
+     */
+    public static String format(final double value, final int decimals) {
+        final long scale = SCALES[decimals];
+        final double abs = Math.abs(value);
+        if (Double.isNaN(value) || Double.isInfinite(value) || abs * scale >= Long.MAX_VALUE / 10) {
+            return String.format("%." + decimals + "f", value);
+        }
+        final long rounded = Math.round(abs * scale);
+        long scaled = rounded;
+        final char[] buffer = new char[24];
+        int pos = buffer.length;
+        for (int i = 0; i < decimals; ++i) {
+            buffer[--pos] = (char) ('0' + scaled % 10);
+            scaled /= 10;
+        }
+        if (decimals > 0) {
+            buffer[--pos] = DECIMAL_SEPARATOR;
+        }
+        do {
+            buffer[--pos] = (char) ('0' + scaled % 10);
+            scaled /= 10;
+        }
+        while (scaled > 0);
+        if (value < 0 && rounded != 0) {
+            buffer[--pos] = '-';
+        }
+        return new String(buffer, pos, buffer.length - pos);
+    }
+
+}
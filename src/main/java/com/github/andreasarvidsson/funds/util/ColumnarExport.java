@@ -0,0 +1,144 @@
+package com.github.andreasarvidsson.funds.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary format for bulk analytics. Records with the same section
+ * and keys are buffered into row groups of at most ROWS_PER_GROUP rows and
+ * written column by column, so memory is bounded by the group size.
+ *
+ * Format, big endian:
+ * magic int, version int, then row groups each starting with byte 1:
+ * section (utf), number of columns (int), number of rows (int) and per
+ * column key (utf), type (byte, 0 for doubles and 1 for strings) and the
+ * values. Missing doubles are NaN and missing strings have a false
+ * presence byte before them. The file ends with byte 0.
+ *
+ * @author Andreas Arvidsson
+ */
+public class ColumnarExport extends Export {
+
+    public static final int MAGIC = 0x46554e44; //"FUND"
+    public static final int VERSION = 1;
+    private static final int ROWS_PER_GROUP = 4096;
+    private static final byte TYPE_DOUBLE = 0, TYPE_STRING = 1;
+
+    private final DataOutputStream out;
+    private final Map<String, Group> groups = new LinkedHashMap();
+
+    public ColumnarExport(final OutputStream stream) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    @Override
+    protected void writeRecord(
+            final String section,
+            final String title,
+            final List<Cell> keys,
+            final List<Cell> values) throws IOException {
+        final StringBuilder id = new StringBuilder(section);
+        for (final Cell key : keys) {
+            id.append('\u0000').append(key.toString());
+        }
+        Group group = groups.get(id.toString());
+        if (group == null) {
+            group = new Group(section, keys);
+            groups.put(id.toString(), group);
+        }
+        group.titles.add(title);
+        for (int i = 0; i < keys.size(); ++i) {
+            group.columns.get(i).add(values.get(i));
+        }
+        if (group.titles.size() == ROWS_PER_GROUP) {
+            group.write();
+        }
+    }
+
+    @Override
+    protected void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (final Group group : groups.values()) {
+            group.write();
+        }
+        out.writeByte(0);
+        out.close();
+    }
+
+    private class Group {
+
+        final String section;
+        final List<String> keys = new ArrayList();
+        final List<String> titles = new ArrayList();
+        final List<List<Cell>> columns = new ArrayList();
+
+        Group(final String section, final List<Cell> keys) {
+            this.section = section;
+            keys.forEach(key -> {
+                this.keys.add(getKey(key));
+                columns.add(new ArrayList());
+            });
+        }
+
+        void write() throws IOException {
+            if (titles.isEmpty()) {
+                return;
+            }
+            out.writeByte(1);
+            out.writeUTF(section);
+            out.writeInt(keys.size() + 1);
+            out.writeInt(titles.size());
+            out.writeUTF("title");
+            out.writeByte(TYPE_STRING);
+            for (final String title : titles) {
+                out.writeBoolean(true);
+                out.writeUTF(title);
+            }
+            for (int i = 0; i < keys.size(); ++i) {
+                final List<Cell> column = columns.get(i);
+                out.writeUTF(keys.get(i));
+                if (isNumeric(column)) {
+                    out.writeByte(TYPE_DOUBLE);
+                    for (final Cell cell : column) {
+                        out.writeDouble(cell.isNumeric() ? cell.value : Double.NaN);
+                    }
+                }
+                else {
+                    out.writeByte(TYPE_STRING);
+                    for (final Cell cell : column) {
+                        final boolean present = cell.type != Cell.Type.MISSING;
+                        out.writeBoolean(present);
+                        if (present) {
+                            out.writeUTF(cell.toString());
+                        }
+                    }
+                }
+                column.clear();
+            }
+            titles.clear();
+        }
+
+        boolean isNumeric(final List<Cell> column) {
+            for (final Cell cell : column) {
+                if (!cell.isNumeric() && cell.type != Cell.Type.MISSING) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+}
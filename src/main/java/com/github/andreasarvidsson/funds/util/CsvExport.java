@@ -0,0 +1,85 @@
+package com.github.andreasarvidsson.funds.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * One line per value: section, title, record, key and value. The columns
+ * are the same for every section so all of them fit in one stream.
+ *
+ * @author Andreas Arvidsson
+ */
+public class CsvExport extends Export {
+
+    private final Writer out;
+    private long record;
+
+    public CsvExport(final Writer writer) throws IOException {
+        out = new BufferedWriter(writer);
+        out.write("section,title,record,key,value\n");
+    }
+
+    @Override
+    protected void writeRecord(
+            final String section,
+            final String title,
+            final List<Cell> keys,
+            final List<Cell> values) throws IOException {
+        ++record;
+        for (int i = 0; i < keys.size(); ++i) {
+            final Cell value = values.get(i);
+            if (value.type == Cell.Type.MISSING || value == Cell.EMPTY) {
+                continue;
+            }
+            writeText(section);
+            out.write(',');
+            writeText(title);
+            out.write(',');
+            out.write(Long.toString(record));
+            out.write(',');
+            writeText(getKey(keys.get(i)));
+            out.write(',');
+            if (value.isNumeric()) {
+                out.write(Double.toString(value.value));
+            }
+            else {
+                writeText(value.toString());
+            }
+            out.write('\n');
+        }
+    }
+
+    @Override
+    protected void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeText(final String text) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < text.length() && !quote; ++i) {
+            final char c = text.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(text);
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < text.length(); ++i) {
+            final char c = text.charAt(i);
+            if (c == '"') {
+                out.write('"');
+            }
+            out.write(c);
+        }
+        out.write('"');
+    }
+
+}
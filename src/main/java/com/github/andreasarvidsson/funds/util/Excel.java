@@ -4,11 +4,14 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.usermodel.BorderStyle;
-import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.Font;
 import org.apache.poi.ss.usermodel.Row;
@@ -16,18 +19,32 @@ import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.VerticalAlignment;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
 /**
+ * Streaming xlsx keeps only the last ROW_WINDOW rows of each sheet in memory
+ * and flushes the rest to temporary files. Legacy xls is kept in memory.
  *
  * @author Andreas Arvidsson
  */
 public class Excel {
 
-    private final Workbook wb = new HSSFWorkbook();
+    private static final int ROW_WINDOW = 100;
+    private static final int MAX_COLUMN_WIDTH = 100;
+    private final Workbook wb;
     private final CellStyle boldStyle;
     private final CellStyle hrStyle;
+    private final Map<String, ExcelTable> tables = new HashMap();
+    private final Map<String, CellStyle> formatStyles = new HashMap();
+    private final Map<CellStyle, CellStyle> hrStyles = new HashMap();
+    private boolean closed;
 
     public Excel() {
+        this(true);
+    }
+
+    public Excel(final boolean streaming) {
+        wb = streaming ? new SXSSFWorkbook(ROW_WINDOW) : new HSSFWorkbook();
         final Font font = wb.createFont();
         font.setBold(true);
         boldStyle = wb.createCellStyle();
@@ -37,35 +54,90 @@ public class Excel {
         hrStyle.setBorderBottom(BorderStyle.THIN);
     }
 
+    public String getExtension() {
+        return wb instanceof SXSSFWorkbook ? "xlsx" : "xls";
+    }
+
+    /**
+     * Writes and closes the workbook. Flushed rows are gone after that, so
+     * it can only be saved once.
+     */
     public void save(final File file) throws FileNotFoundException, IOException {
+        checkOpen();
+        closed = true;
         file.getParentFile().mkdirs();
-        wb.write(new FileOutputStream(file));
+        try (final OutputStream out = new FileOutputStream(file)) {
+            wb.write(out);
+        }
+        finally {
+            if (wb instanceof SXSSFWorkbook) {
+                ((SXSSFWorkbook) wb).dispose();
+            }
+            wb.close();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
     }
 
     public boolean hasTable(final String name) {
-        return wb.getSheet(name) != null;
+        return tables.containsKey(name);
     }
 
     public ExcelTable getTable(final String name) {
-        Sheet sheet = wb.getSheet(name);
-        if (sheet == null) {
-            sheet = wb.createSheet(name);
+        checkOpen();
+        ExcelTable table = tables.get(name);
+        if (table == null) {
+            table = new ExcelTable(this, wb.createSheet(name));
+            tables.put(name, table);
         }
-        return new ExcelTable(sheet, boldStyle, hrStyle);
+        return table;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Excel workbook is already saved");
+        }
+    }
+
+    private CellStyle getFormatStyle(final String format) {
+        CellStyle style = formatStyles.get(format);
+        if (style == null) {
+            style = wb.createCellStyle();
+            style.setDataFormat(wb.createDataFormat().getFormat(format));
+            formatStyles.put(format, style);
+        }
+        return style;
+    }
+
+    //Keeps the number format of cells getting a border.
+    private CellStyle getHRStyle(final CellStyle style) {
+        if (style == null || style.getIndex() == 0) {
+            return hrStyle;
+        }
+        CellStyle res = hrStyles.get(style);
+        if (res == null) {
+            res = wb.createCellStyle();
+            res.cloneStyleFrom(style);
+            res.setBorderBottom(BorderStyle.THIN);
+            hrStyles.put(style, res);
+        }
+        return res;
     }
 
     public static class ExcelTable {
 
+        private final Excel excel;
         private final Sheet sheet;
-        final CellStyle boldStyle, hrStyle;
+        //Flushed rows can't be read back, so the row index and widths are tracked here.
+        private final List<Integer> colWidths = new ArrayList();
+        private Row lastRow;
+        private int numRows;
 
-        private ExcelTable(
-                final Sheet sheet,
-                final CellStyle boldStyle,
-                final CellStyle hrStyle) {
+        private ExcelTable(final Excel excel, final Sheet sheet) {
+            this.excel = excel;
             this.sheet = sheet;
-            this.boldStyle = boldStyle;
-            this.hrStyle = hrStyle;
         }
 
         public void addRow() {
@@ -73,28 +145,76 @@ public class Excel {
         }
 
         public void addRow(final List<String> cells) {
-            final Row row = sheet.createRow(sheet.getPhysicalNumberOfRows());
+            lastRow = sheet.createRow(numRows++);
             for (int i = 0; i < cells.size(); ++i) {
-                final Cell cell = row.createCell(i);
+                final org.apache.poi.ss.usermodel.Cell cell = lastRow.createCell(i);
                 cell.setCellValue(cells.get(i));
             }
+            updateColWidths(cells);
         }
 
         public void addTitle(final String title) {
-            addRow(Arrays.asList(title));
-            final int rowIndex = sheet.getPhysicalNumberOfRows() - 1;
-            final Row row = sheet.getRow(rowIndex);
-            for (int i = 0; i < row.getPhysicalNumberOfCells(); ++i) {
-                row.getCell(i).setCellStyle(boldStyle);
-            }
-            sheet.addMergedRegion(new CellRangeAddress(rowIndex, rowIndex, 0, 7));
+            //Not counted in the widths since it spans several columns.
+            lastRow = sheet.createRow(numRows++);
+            lastRow.createCell(0).setCellValue(title);
+            lastRow.getCell(0).setCellStyle(excel.boldStyle);
+            sheet.addMergedRegion(new CellRangeAddress(numRows - 1, numRows - 1, 0, 7));
         }
 
         public void addHR() {
-            final Row row = sheet.getRow(sheet.getPhysicalNumberOfRows() - 1);
-            for (int i = 0; i < row.getPhysicalNumberOfCells(); ++i) {
-                row.getCell(i).setCellStyle(hrStyle);
+            for (int i = 0; i < lastRow.getLastCellNum(); ++i) {
+                final org.apache.poi.ss.usermodel.Cell cell = lastRow.getCell(i);
+                cell.setCellStyle(excel.getHRStyle(cell.getCellStyle()));
+            }
+        }
+
+        /**
+         * Numbers are written as numeric cells with a number format, so they
+         * can be sorted and summed. Percentages are stored as fractions.
+         */
+        public void add(final Table table) {
+            table.getRows().forEach(row -> {
+                if (row.hr) {
+                    addHR();
+                }
+                else {
+                    addCells(row.cells);
+                }
+            });
+        }
+
+        private void addCells(final List<Cell> cells) {
+            lastRow = sheet.createRow(numRows++);
+            final List<String> texts = new ArrayList(cells.size());
+            for (int i = 0; i < cells.size(); ++i) {
+                final Cell cell = cells.get(i);
+                final org.apache.poi.ss.usermodel.Cell excelCell = lastRow.createCell(i);
+                switch (cell.type) {
+                    case NUMBER:
+                        excelCell.setCellValue(cell.value);
+                        excelCell.setCellStyle(excel.getFormatStyle(getNumberFormat(cell.decimals)));
+                        break;
+                    case PERCENT:
+                        excelCell.setCellValue(cell.value * 0.01);
+                        excelCell.setCellStyle(excel.getFormatStyle(getNumberFormat(cell.decimals) + "%"));
+                        break;
+                    default:
+                        excelCell.setCellValue(cell.toString());
+                }
+                texts.add(cell.toString());
             }
+            updateColWidths(texts);
+        }
+
+        private static String getNumberFormat(final int decimals) {
+            final StringBuilder sb = new StringBuilder("0");
+            if (decimals > 0) {
+                sb.append('.');
+                for (int i = 0; i < decimals; ++i) {
+                    sb.append('0');
+                }
+            }
+            return sb.toString();
         }
 
         public void addRows(final List<List<String>> rows) {
@@ -103,9 +223,22 @@ public class Excel {
             });
         }
 
+        /**
+         * Widths from the longest string in each column, the same way as
+         * AsciiTable, instead of measuring every cell with font metrics.
+         */
         public void autoSizeColumns(final int numColums) {
-            for (int i = 0; i < numColums; ++i) {
-                sheet.autoSizeColumn(i);
+            for (int i = 0; i < numColums && i < colWidths.size(); ++i) {
+                sheet.setColumnWidth(i, (Math.min(colWidths.get(i), MAX_COLUMN_WIDTH) + 2) * 256);
+            }
+        }
+
+        private void updateColWidths(final List<String> cells) {
+            while (colWidths.size() < cells.size()) {
+                colWidths.add(0);
+            }
+            for (int i = 0; i < cells.size(); ++i) {
+                colWidths.set(i, Math.max(colWidths.get(i), cells.get(i).length()));
             }
         }
 
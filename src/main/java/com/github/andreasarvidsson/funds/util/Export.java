@@ -0,0 +1,125 @@
+package com.github.andreasarvidsson.funds.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Machine readable output of result sections. Each row of a table becomes
+ * one record per group of columns, keyed by the column headers, which are
+ * the labels in Headers where there is one. Headers with their own keys use
+ * those instead, so the keys don't depend on the input, and the fields of
+ * the table start every record. Ranks are split into the value, under the
+ * key, and the rank, under the key followed by RANK_SUFFIX.
+ *
+ * @author Andreas Arvidsson
+ */
+public abstract class Export implements Closeable {
+
+    //Used for the unnamed first column, which holds the row name.
+    public static final String NAME_KEY = "Namn";
+    public static final String RANK_SUFFIX = ", plats";
+
+    //Sections written from several threads come out whole.
+    public synchronized void write(final String section, final Table table) throws IOException {
+        final List<Cell> fieldKeys = new ArrayList(), fieldValues = new ArrayList();
+        table.getFields().forEach((key, value) -> {
+            fieldKeys.add(Cell.text(key));
+            fieldValues.add(Cell.text(value));
+        });
+        List<Cell> headers = null, keys = null;
+        for (final Table.Row row : table.getRows()) {
+            if (row.hr) {
+                continue;
+            }
+            if (row.header) {
+                headers = row.cells;
+                keys = row.keys != null ? row.keys : row.cells;
+                continue;
+            }
+            if (headers == null) {
+                continue;
+            }
+            //Side by side groups are separate records.
+            int from = 0;
+            while (from < headers.size()) {
+                int to = from;
+                while (to < headers.size() && !Table.SEPARATOR.equals(headers.get(to).toString())) {
+                    ++to;
+                }
+                final int end = Math.min(to, row.cells.size());
+                if (from < end && !isEmpty(row.cells, from, end)) {
+                    writeRecord(
+                            section, table.title,
+                            fieldKeys, fieldValues,
+                            keys.subList(from, end), row.cells.subList(from, end)
+                    );
+                }
+                from = to + 1;
+            }
+        }
+        flush();
+    }
+
+    private void writeRecord(
+            final String section,
+            final String title,
+            final List<Cell> fieldKeys,
+            final List<Cell> fieldValues,
+            final List<Cell> keys,
+            final List<Cell> values) throws IOException {
+        if (fieldKeys.isEmpty() && !hasRank(values)) {
+            writeRecord(section, title, keys, values);
+            return;
+        }
+        final List<Cell> allKeys = new ArrayList(fieldKeys);
+        final List<Cell> allValues = new ArrayList(fieldValues);
+        for (int i = 0; i < keys.size(); ++i) {
+            final Cell value = values.get(i);
+            if (value.type == Cell.Type.RANK) {
+                allKeys.add(keys.get(i));
+                allValues.add(Double.isNaN(value.value) ? Cell.MISSING : Cell.number(value.value, value.decimals));
+                allKeys.add(Cell.text(getKey(keys.get(i)) + RANK_SUFFIX));
+                allValues.add(Cell.number((double) value.rank, 0));
+            }
+            else {
+                allKeys.add(keys.get(i));
+                allValues.add(value);
+            }
+        }
+        writeRecord(section, title, allKeys, allValues);
+    }
+
+    protected abstract void writeRecord(
+            final String section,
+            final String title,
+            final List<Cell> keys,
+            final List<Cell> values) throws IOException;
+
+    protected abstract void flush() throws IOException;
+
+    protected static String getKey(final Cell header) {
+        final String key = header.toString();
+        return key.isEmpty() ? NAME_KEY : key;
+    }
+
+    private static boolean hasRank(final List<Cell> cells) {
+        for (final Cell cell : cells) {
+            if (cell.type == Cell.Type.RANK) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isEmpty(final List<Cell> cells, final int from, final int to) {
+        for (int i = from; i < to; ++i) {
+            if (cells.get(i) != Cell.EMPTY) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -8,6 +8,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  *
@@ -18,32 +22,53 @@ public abstract class FileCache {
     private static final ObjectMapper MAPPER = new ObjectMapper();
     private static final String DIR = "cache";
     private static final long MILLIS_PER_HOUR = 3600000;
+    //Not allowed in file names on some file systems, plus % used for escaping.
+    private static final String RESERVED = "%/\\:*?\"<>|";
 
     static {
         final File dir = new File(DIR);
+        //Create cache directory.
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        expire();
+    }
+
+    /**
+     * Clear cache from files older than 12 hours. Done when the class is
+     * loaded and by long running processes.
+     */
+    public static void expire() {
         //Threshold is 12 hours from now.
         final long threshold = System.currentTimeMillis() - 12 * MILLIS_PER_HOUR;
-        //Clear cache from old files.
-        if (dir.exists()) {
-            for (final File f : dir.listFiles()) {
+        final File[] files = new File(DIR).listFiles();
+        if (files != null) {
+            for (final File f : files) {
                 //Delete if file is older than threshold
                 if (f.lastModified() < threshold) {
                     f.delete();
                 }
             }
         }
-        //Create cache directory.
-        else {
-            dir.mkdirs();
-        }
     }
 
+    /**
+     * Written to a temporary file that replaces the file when complete, so
+     * concurrent readers never see a partial file.
+     */
     public static void store(final String fileName, final Object data) throws IOException {
         final File file = getFile(fileName);
-        final JsonFactory jsonFactory = new JsonFactory();
-        try (final JsonGenerator jsonGen = jsonFactory.createGenerator(file, JsonEncoding.UTF8)) {
-            jsonGen.setCodec(MAPPER);
-            jsonGen.writeObject(data);
+        final File tmp = File.createTempFile("tmp_", ".tmp", new File(DIR));
+        try {
+            final JsonFactory jsonFactory = new JsonFactory();
+            try (final JsonGenerator jsonGen = jsonFactory.createGenerator(tmp, JsonEncoding.UTF8)) {
+                jsonGen.setCodec(MAPPER);
+                jsonGen.writeObject(data);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            tmp.delete();
         }
     }
 
@@ -57,8 +82,73 @@ public abstract class FileCache {
         return null;
     }
 
+    public static void delete(final String fileName) {
+        getFile(fileName).delete();
+    }
+
+    public static List<String> list(final String prefix) {
+        final List<String> res = new ArrayList();
+        final File[] files = new File(DIR).listFiles();
+        if (files != null) {
+            for (final File f : files) {
+                final String name = f.getName();
+                if (name.endsWith(".json")) {
+                    final String fileName = decode(name.substring(0, name.length() - 5));
+                    if (fileName.startsWith(prefix)) {
+                        res.add(fileName);
+                    }
+                }
+            }
+        }
+        return res;
+    }
+
     private static File getFile(final String fileName) {
-        return new File(String.format("%s/%s.json", DIR, fileName));
+        return new File(String.format("%s/%s.json", DIR, encode(fileName)));
+    }
+
+    /**
+     * Names come from fund and holding names, e.g. "Company A/S", so reserved
+     * characters are escaped as %XX. Names without them are kept as is.
+     */
+    public static String encode(final String fileName) {
+        StringBuilder sb = null;
+        for (int i = 0; i < fileName.length(); ++i) {
+            final char c = fileName.charAt(i);
+            final boolean reserved = c < 0x20 || RESERVED.indexOf(c) >= 0;
+            if (reserved && sb == null) {
+                sb = new StringBuilder(fileName.substring(0, i));
+            }
+            if (reserved) {
+                sb.append(String.format("%%%02X", (int) c));
+            }
+            else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb != null ? sb.toString() : fileName;
+    }
+
+    private static String decode(final String name) {
+        if (name.indexOf('%') == -1) {
+            return name;
+        }
+        final StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); ++i) {
+            final char c = name.charAt(i);
+            if (c == '%' && i + 2 < name.length()) {
+                try {
+                    sb.append((char) Integer.parseInt(name.substring(i + 1, i + 3), 16));
+                    i += 2;
+                    continue;
+                }
+                catch (final NumberFormatException ex) {
+                    //Not escaped by encode, keep as is.
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
     }
 
 }
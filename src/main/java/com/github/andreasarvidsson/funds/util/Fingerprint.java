@@ -0,0 +1,96 @@
+package com.github.andreasarvidsson.funds.util;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 hash of everything a result is computed from.
+ *
+ * @author Andreas Arvidsson
+ */
+public class Fingerprint {
+
+    //Only the fields, derived getters are not part of the content.
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .setVisibility(PropertyAccessor.GETTER, Visibility.NONE)
+            .setVisibility(PropertyAccessor.IS_GETTER, Visibility.NONE);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final MessageDigest digest;
+    private final byte[] buffer = new byte[8];
+
+    public Fingerprint() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (final NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public static String of(final Object data) {
+        return new Fingerprint().addJson(data).toString();
+    }
+
+    public Fingerprint add(final String value) {
+        if (value == null) {
+            digest.update((byte) 0);
+        }
+        else {
+            digest.update((byte) 1);
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+            //Terminator so "ab" + "c" differs from "a" + "bc".
+            digest.update((byte) 0);
+        }
+        return this;
+    }
+
+    public Fingerprint add(final double value) {
+        long bits = Double.doubleToLongBits(value);
+        for (int i = 7; i >= 0; --i) {
+            buffer[i] = (byte) bits;
+            bits >>>= 8;
+        }
+        digest.update(buffer);
+        return this;
+    }
+
+    public Fingerprint add(final Double value) {
+        digest.update((byte) (value == null ? 0 : 1));
+        return value == null ? this : add(value.doubleValue());
+    }
+
+    public Fingerprint add(final boolean value) {
+        digest.update((byte) (value ? 1 : 0));
+        return this;
+    }
+
+    public Fingerprint addJson(final Object data) {
+        try {
+            return add(MAPPER.writeValueAsString(data));
+        }
+        catch (final JsonProcessingException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Hex string of the hash. Ends the fingerprint.
+     */
+    @Override
+    public String toString() {
+        final byte[] hash = digest.digest();
+        final char[] res = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; ++i) {
+            res[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            res[i * 2 + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(res);
+    }
+
+}
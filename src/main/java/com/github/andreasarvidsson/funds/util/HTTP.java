@@ -1,10 +1,16 @@
 package com.github.andreasarvidsson.funds.util;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 
@@ -16,6 +22,7 @@ public abstract class HTTP {
 
     private static final ObjectMapper MAPPER = new ObjectMapper();
     private static final int TIMEOUT = 30 * 1000; //30sec
+    private static final Pattern CHARSET_PATTERN = Pattern.compile("charset\\s*=\\s*\"?([^;\"\\s]+)", Pattern.CASE_INSENSITIVE);
 
     public static <E> E get(final String url, final Class<E> type) throws IOException {
         final HttpURLConnection con = (HttpURLConnection) new URL(url).openConnection();
@@ -36,6 +43,40 @@ public abstract class HTTP {
         return res;
     }
 
+    public static String getString(final String url) throws IOException {
+        final HttpURLConnection con = (HttpURLConnection) new URL(url).openConnection();
+        con.setRequestMethod("GET");
+        con.setConnectTimeout(TIMEOUT);
+        con.setReadTimeout(TIMEOUT);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final InputStream in = con.getInputStream()) {
+            final byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                out.write(buffer, 0, length);
+            }
+        }
+        final Charset charset = getCharset(con.getContentType());
+        con.disconnect();
+        return new String(out.toByteArray(), charset);
+    }
+
+    //UTF-8 unless the content type says otherwise.
+    private static Charset getCharset(final String contentType) {
+        if (contentType != null) {
+            final Matcher matcher = CHARSET_PATTERN.matcher(contentType);
+            if (matcher.find()) {
+                try {
+                    return Charset.forName(matcher.group(1));
+                }
+                catch (final IllegalArgumentException ex) {
+                    //Unknown charset.
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
     public static Document getDocument(final String url) throws IOException {
         return Jsoup.parse(new URL(url), TIMEOUT);
     }
@@ -0,0 +1,54 @@
+package com.github.andreasarvidsson.funds.util;
+
+import java.util.Arrays;
+
+/**
+ * Sums per integer id in reusable primitive arrays. Ids are kept in the
+ * order they were first added.
+ *
+ * @author Andreas Arvidsson
+ */
+public class IdSums {
+
+    private double[] sums = new double[64];
+    private boolean[] used = new boolean[64];
+    private int[] ids = new int[16];
+    private int size;
+
+    public void add(final int id, final double value) {
+        if (id >= sums.length) {
+            final int length = Math.max(id + 1, sums.length * 2);
+            sums = Arrays.copyOf(sums, length);
+            used = Arrays.copyOf(used, length);
+        }
+        if (!used[id]) {
+            used[id] = true;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+        sums[id] += value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getId(final int index) {
+        return ids[index];
+    }
+
+    public double getSum(final int index) {
+        return sums[ids[index]];
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; ++i) {
+            sums[ids[i]] = 0;
+            used[ids[i]] = false;
+        }
+        size = 0;
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.github.andreasarvidsson.funds.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * One json object per record and line, with section and title next to the
+ * values. Missing values are null.
+ *
+ * @author Andreas Arvidsson
+ */
+public class JsonLinesExport extends Export {
+
+    private final JsonGenerator generator;
+
+    public JsonLinesExport(final Writer writer) throws IOException {
+        generator = new JsonFactory().createGenerator(new BufferedWriter(writer));
+        generator.setRootValueSeparator(new SerializedString("\n"));
+    }
+
+    @Override
+    protected void writeRecord(
+            final String section,
+            final String title,
+            final List<Cell> keys,
+            final List<Cell> values) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("section", section);
+        generator.writeStringField("title", title);
+        for (int i = 0; i < keys.size(); ++i) {
+            final Cell value = values.get(i);
+            generator.writeFieldName(getKey(keys.get(i)));
+            if (value.isNumeric()) {
+                generator.writeNumber(value.value);
+            }
+            else if (value.type == Cell.Type.MISSING) {
+                generator.writeNull();
+            }
+            else {
+                generator.writeString(value.toString());
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    @Override
+    protected void flush() throws IOException {
+        generator.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        generator.writeRaw('\n');
+        generator.close();
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.github.andreasarvidsson.funds.util;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fuzzy name lookup using trigrams. Names are case and diacritics folded, so
+ * "Tillväxt" and "tillvaxt" are the same, and ranked by Dice coefficient.
+ *
+ * @author Andreas Arvidsson
+ * @param <V>
+ */
+public class NameIndex<V> {
+
+    private final List<String> names = new ArrayList();
+    private final List<V> values = new ArrayList();
+    private final List<Integer> sizes = new ArrayList();
+    private final Map<String, Integer> exact = new HashMap();
+    private final Map<String, List<Integer>> postings = new HashMap();
+
+    public synchronized void put(final String name, final V value) {
+        final String folded = fold(name);
+        if (exact.containsKey(folded)) {
+            values.set(exact.get(folded), value);
+            return;
+        }
+        final int index = names.size();
+        final Set<String> trigrams = trigrams(folded);
+        names.add(name);
+        values.add(value);
+        sizes.add(trigrams.size());
+        exact.put(folded, index);
+        trigrams.forEach(trigram -> {
+            postings.computeIfAbsent(trigram, k -> new ArrayList()).add(index);
+        });
+    }
+
+    /**
+     * Value of the name when it's equal after folding, or null.
+     */
+    public synchronized V getExact(final String name) {
+        final Integer index = exact.get(fold(name));
+        return index != null ? values.get(index) : null;
+    }
+
+    /**
+     * Best match with a score of at least minScore that beats the runner-up
+     * by at least minMargin, or null.
+     */
+    public synchronized V find(final String name, final double minScore, final double minMargin) {
+        final Match<V> match = findMatch(name, minScore, minMargin);
+        return match != null ? match.value : null;
+    }
+
+    public synchronized Match<V> findMatch(final String name, final double minScore, final double minMargin) {
+        final Integer index = exact.get(fold(name));
+        if (index != null) {
+            return new Match(names.get(index), values.get(index), 1);
+        }
+        final List<Match<V>> matches = search(name, 2);
+        if (matches.isEmpty() || matches.get(0).score < minScore) {
+            return null;
+        }
+        if (matches.size() > 1 && matches.get(0).score - matches.get(1).score < minMargin) {
+            return null;
+        }
+        return matches.get(0);
+    }
+
+    public synchronized List<Match<V>> search(final String name, final int limit) {
+        final Set<String> trigrams = trigrams(fold(name));
+        final int[] common = new int[names.size()];
+        final List<Integer> candidates = new ArrayList();
+        trigrams.forEach(trigram -> {
+            final List<Integer> list = postings.get(trigram);
+            if (list != null) {
+                for (final int i : list) {
+                    if (common[i]++ == 0) {
+                        candidates.add(i);
+                    }
+                }
+            }
+        });
+        final List<Match<V>> res = new ArrayList();
+        for (final int i : candidates) {
+            final double score = 2.0 * common[i] / (trigrams.size() + sizes.get(i));
+            res.add(new Match(names.get(i), values.get(i), score));
+        }
+        Collections.sort(res, (a, b) -> Double.compare(b.score, a.score));
+        return res.size() > limit ? new ArrayList(res.subList(0, limit)) : res;
+    }
+
+    public synchronized int size() {
+        return names.size();
+    }
+
+    public static String fold(final String name) {
+        final String decomposed = Normalizer.normalize(name.toLowerCase(), Normalizer.Form.NFD);
+        final StringBuilder sb = new StringBuilder(decomposed.length());
+        boolean space = true;
+        for (int i = 0; i < decomposed.length(); ++i) {
+            final char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(c);
+                space = false;
+            }
+            else if (!space) {
+                sb.append(' ');
+                space = true;
+            }
+        }
+        if (space && sb.length() > 0) {
+            sb.setLength(sb.length() - 1);
+        }
+        return sb.toString();
+    }
+
+    private static Set<String> trigrams(final String folded) {
+        final Set<String> res = new HashSet();
+        final String padded = "  " + folded + " ";
+        for (int i = 0; i + 3 <= padded.length(); ++i) {
+            res.add(padded.substring(i, i + 3));
+        }
+        return res;
+    }
+
+    public static class Match<V> {
+
+        public final String name;
+        public final V value;
+        public final double score;
+
+        private Match(final String name, final V value, final double score) {
+            this.name = name;
+            this.value = value;
+            this.score = score;
+        }
+
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.github.andreasarvidsson.funds.util;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Tables of result sections stored in the file cache by the fingerprint of
+ * their inputs. Both the ascii and the Excel output are rendered from the
+ * table, so a section whose inputs are unchanged is never rebuilt.
+ *
+ * @author Andreas Arvidsson
+ */
+public class SectionCache {
+
+    //Bump when the content of any section changes.
+    private static final int VERSION = 2;
+    private static final String PREFIX = String.format("section_v%d_", VERSION);
+
+    private final AtomicInteger hits = new AtomicInteger(), misses = new AtomicInteger();
+
+    //Sections are built outside of any lock, so one slow section doesn't
+    //hold up the others. Two threads may build the same section, which gives
+    //the same table.
+    public Table get(final String key, final Supplier<Table> builder) throws IOException {
+        final String fileName = PREFIX + key;
+        final StoredTable stored = FileCache.load(fileName, StoredTable.class);
+        if (stored != null) {
+            hits.incrementAndGet();
+            return stored.toTable();
+        }
+        misses.incrementAndGet();
+        final Table table = builder.get();
+        FileCache.store(fileName, new StoredTable(table));
+        return table;
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    public static class StoredTable {
+
+        public String title;
+        public Map<String, String> fields = new LinkedHashMap();
+        public List<StoredRow> rows = new ArrayList();
+
+        public StoredTable() {
+        }
+
+        private StoredTable(final Table table) {
+            title = table.title;
+            fields.putAll(table.getFields());
+            table.getRows().forEach(row -> {
+                rows.add(new StoredRow(row));
+            });
+        }
+
+        private Table toTable() {
+            final Table table = new Table(title);
+            fields.forEach((key, value) -> {
+                table.addField(key, value);
+            });
+            rows.forEach(row -> {
+                row.addTo(table);
+            });
+            return table;
+        }
+
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    public static class StoredRow {
+
+        public boolean hr, header;
+        public List<StoredCell> cells;
+        public List<String> keys;
+
+        public StoredRow() {
+        }
+
+        private StoredRow(final Table.Row row) {
+            hr = row.hr;
+            header = row.header;
+            if (row.cells != null) {
+                cells = new ArrayList(row.cells.size());
+                for (final Cell cell : row.cells) {
+                    cells.add(new StoredCell(cell));
+                }
+            }
+            if (row.keys != null) {
+                keys = new ArrayList(row.keys.size());
+                for (final Cell key : row.keys) {
+                    keys.add(key.toString());
+                }
+            }
+        }
+
+        private void addTo(final Table table) {
+            if (hr) {
+                table.addHR();
+                return;
+            }
+            final List<Cell> res = new ArrayList(cells.size());
+            cells.forEach(cell -> {
+                res.add(cell.toCell());
+            });
+            if (header) {
+                final List<String> headers = new ArrayList(res.size());
+                res.forEach(cell -> {
+                    headers.add(cell.toString());
+                });
+                table.addHeaders(headers, keys);
+            }
+            else {
+                table.addRow(res);
+            }
+        }
+
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    public static class StoredCell {
+
+        public Cell.Type type = Cell.Type.TEXT;
+        public String text;
+        public double value;
+        public int decimals, rank;
+
+        public StoredCell() {
+        }
+
+        private StoredCell(final Cell cell) {
+            type = cell.type;
+            if (cell.type == Cell.Type.TEXT) {
+                text = cell.toString();
+            }
+            else {
+                value = cell.value;
+                decimals = cell.decimals;
+                rank = cell.rank;
+            }
+        }
+
+        private Cell toCell() {
+            switch (type) {
+                case NUMBER:
+                    return Cell.number(value, decimals);
+                case PERCENT:
+                    return Cell.percent(value);
+                case RANK:
+                    return Cell.rank(rank, Double.isNaN(value) ? null : value);
+                case MISSING:
+                    return Cell.MISSING;
+                default:
+                    return Cell.text(text != null ? text : "");
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.github.andreasarvidsson.funds.util;
+
+import java.util.Arrays;
+
+/**
+ * Sparse vector with sorted string keys. Two vectors are compared by merging
+ * their keys, in time linear to their sizes.
+ *
+ * @author Andreas Arvidsson
+ */
+public class SparseVector {
+
+    private final String[] keys;
+    private final double[] values;
+
+    public SparseVector(final Values values) {
+        final String[] sortedKeys = new String[values.size()];
+        int index = 0;
+        for (final Pair<String, Double> p : values) {
+            sortedKeys[index++] = p.first();
+        }
+        Arrays.sort(sortedKeys);
+        this.keys = sortedKeys;
+        this.values = new double[sortedKeys.length];
+        for (int i = 0; i < sortedKeys.length; ++i) {
+            this.values[i] = values.get(sortedKeys[i], 0.0);
+        }
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public double sum() {
+        double res = 0;
+        for (final double value : values) {
+            res += value;
+        }
+        return res;
+    }
+
+    /**
+     * Sum of absolute differences over the union of keys.
+     */
+    public double l1Distance(final SparseVector other) {
+        final double[] res = {0};
+        merge(other, (key, a, b) -> res[0] += Math.abs(a - b));
+        return res[0];
+    }
+
+    /**
+     * Calls the consumer for every key in either vector, in key order, with
+     * missing values as zero.
+     */
+    public void merge(final SparseVector other, final MergeConsumer consumer) {
+        int i = 0, j = 0;
+        while (i < keys.length || j < other.keys.length) {
+            final int cmp = i == keys.length ? 1
+                    : j == other.keys.length ? -1
+                    : keys[i].compareTo(other.keys[j]);
+            if (cmp == 0) {
+                consumer.accept(keys[i], values[i++], other.values[j++]);
+            }
+            else if (cmp < 0) {
+                consumer.accept(keys[i], values[i++], 0);
+            }
+            else {
+                consumer.accept(other.keys[j], 0, other.values[j++]);
+            }
+        }
+    }
+
+    public interface MergeConsumer {
+
+        void accept(final String key, final double first, final double second);
+    }
+
+}
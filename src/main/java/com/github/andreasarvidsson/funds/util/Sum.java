@@ -21,6 +21,11 @@ public class Sum {
         percentages.put(key, percentages.get(key) + percentage);
     }
 
+    public void set(final String key, final double value) {
+        sum.put(key, value);
+        percentages.put(key, 1.0);
+    }
+
     public void normalize() {
         sum.entrySet().forEach(e -> {
             sum.put(e.getKey(), e.getValue() / percentages.get(e.getKey()));
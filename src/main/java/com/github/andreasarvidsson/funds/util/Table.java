@@ -0,0 +1,106 @@
+package com.github.andreasarvidsson.funds.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typed rows of a result section, filled once and rendered to both ascii
+ * and Excel.
+ *
+ * @author Andreas Arvidsson
+ */
+public class Table {
+
+    //Separates side by side groups of columns.
+    public static final String SEPARATOR = "   |   ";
+
+    public final String title;
+    private final List<Row> rows = new ArrayList();
+    private final Map<String, String> fields = new LinkedHashMap();
+
+    public Table(final String title) {
+        this.title = title;
+    }
+
+    public Table addHeaders(final List<String> headers) {
+        return addHeaders(headers, null);
+    }
+
+    /**
+     * Headers with other keys in exports, for headers that vary with the
+     * input, e.g. portfolio names. Null keys are the same as the headers.
+     */
+    public Table addHeaders(final List<String> headers, final List<String> keys) {
+        rows.add(new Row(Cell.texts(headers), keys != null ? Cell.texts(keys) : null, false, true));
+        return this;
+    }
+
+    /**
+     * Value written to every export record of the table, e.g. the name of a
+     * portfolio whose column has a fixed key.
+     */
+    public Table addField(final String key, final String value) {
+        fields.put(key, value);
+        return this;
+    }
+
+    public Map<String, String> getFields() {
+        return Collections.unmodifiableMap(fields);
+    }
+
+    public Table addRow(final List<Cell> cells) {
+        rows.add(new Row(cells, null, false, false));
+        return this;
+    }
+
+    public Table addRow(final Cell... cells) {
+        return addRow(Arrays.asList(cells));
+    }
+
+    public Table addRows(final List<List<Cell>> rows) {
+        rows.forEach(row -> {
+            addRow(row);
+        });
+        return this;
+    }
+
+    public Table addHR() {
+        rows.add(new Row(null, null, true, false));
+        return this;
+    }
+
+    public List<Row> getRows() {
+        return rows;
+    }
+
+    public int numColumns() {
+        int res = 0;
+        for (final Row row : rows) {
+            if (!row.hr) {
+                res = Math.max(res, row.cells.size());
+            }
+        }
+        return res;
+    }
+
+    public static class Row {
+
+        public final List<Cell> cells;
+        //Export keys of a header row, null to use the cells.
+        public final List<Cell> keys;
+        public final boolean hr, header;
+
+        private Row(final List<Cell> cells, final List<Cell> keys, final boolean hr, final boolean header) {
+            this.cells = cells;
+            this.keys = keys;
+            this.hr = hr;
+            this.header = header;
+        }
+
+    }
+
+}
@@ -0,0 +1,205 @@
+package com.github.andreasarvidsson.funds.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs tasks concurrently as soon as the tasks they depend on are done.
+ * Ordered tasks are also chained in the order they were added, so whatever
+ * they write comes out in the same order as in a sequential run.
+ *
+ * @author Andreas Arvidsson
+ */
+public class TaskGraph {
+
+    private static final int NUM_THREADS = 8;
+
+    public interface Task<T> {
+
+        T run() throws IOException;
+    }
+
+    public interface Action {
+
+        void run() throws IOException;
+    }
+
+    private final int numThreads;
+    private final List<Node> nodes = new ArrayList();
+    private Node lastOrdered;
+    private long t0, t1;
+
+    public TaskGraph() {
+        this(NUM_THREADS);
+    }
+
+    public TaskGraph(final int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public <T> Node<T> add(final String name, final Task<T> task, final Node... dependencies) {
+        final Node<T> node = new Node(name, task, Arrays.asList(dependencies));
+        nodes.add(node);
+        return node;
+    }
+
+    /**
+     * Runs after the dependencies and the previously added ordered task.
+     */
+    public Node<Void> addOrdered(final String name, final Action action, final Node... dependencies) {
+        final List<Node> deps = new ArrayList(Arrays.asList(dependencies));
+        if (lastOrdered != null) {
+            deps.add(lastOrdered);
+        }
+        final Node<Void> node = new Node(name, () -> {
+            action.run();
+            return null;
+        }, deps);
+        nodes.add(node);
+        lastOrdered = node;
+        return node;
+    }
+
+    /**
+     * Runs all tasks and waits for them. The first failure, in the order the
+     * tasks were added, is rethrown.
+     */
+    public void run() throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads, r -> {
+            final Thread thread = new Thread(r, "task-graph");
+            thread.setDaemon(true);
+            return thread;
+        });
+        t0 = System.nanoTime();
+        try {
+            //Dependencies are always added first, so their futures exist.
+            nodes.forEach(node -> node.start(executor));
+            for (final Node node : nodes) {
+                node.get();
+            }
+        }
+        finally {
+            t1 = System.nanoTime();
+            executor.shutdown();
+        }
+        markCriticalPath();
+    }
+
+    public List<Node> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    /**
+     * Wall time of the last run in seconds.
+     */
+    public double getTime() {
+        return (t1 - t0) * 1e-9;
+    }
+
+    //The chain of tasks that each waited for the one before it to finish.
+    private void markCriticalPath() {
+        Node node = null;
+        for (final Node n : nodes) {
+            if (node == null || n.end > node.end) {
+                node = n;
+            }
+        }
+        while (node != null) {
+            node.critical = true;
+            Node next = null;
+            for (final Object o : node.dependencies) {
+                final Node dep = (Node) o;
+                if (next == null || dep.end > next.end) {
+                    next = dep;
+                }
+            }
+            node = next;
+        }
+    }
+
+    public class Node<T> {
+
+        public final String name;
+        private final Task<T> task;
+        private final List<Node> dependencies;
+        private CompletableFuture<T> future;
+        private long start, end;
+        private boolean critical;
+
+        private Node(final String name, final Task<T> task, final List<Node> dependencies) {
+            this.name = name;
+            this.task = task;
+            this.dependencies = dependencies;
+        }
+
+        /**
+         * The value of the task. Doesn't block inside tasks depending on this.
+         */
+        public T get() throws IOException {
+            try {
+                return future.join();
+            }
+            catch (final CompletionException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Seconds from the start of the run until this task started.
+         */
+        public double getStart() {
+            return (start - t0) * 1e-9;
+        }
+
+        /**
+         * Seconds this task ran, not counting the wait for dependencies.
+         */
+        public double getTime() {
+            return (end - start) * 1e-9;
+        }
+
+        public boolean isCritical() {
+            return critical;
+        }
+
+        private void start(final ExecutorService executor) {
+            final CompletableFuture[] deps = new CompletableFuture[dependencies.size()];
+            for (int i = 0; i < deps.length; ++i) {
+                deps[i] = dependencies.get(i).future;
+            }
+            future = CompletableFuture.allOf(deps).thenApplyAsync(v -> execute(), executor);
+        }
+
+        private T execute() {
+            start = System.nanoTime();
+            try {
+                return task.run();
+            }
+            catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            finally {
+                end = System.nanoTime();
+            }
+        }
+
+    }
+
+}